@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link AspectRatio} creation, parsing and matching over the output sizes of a device.
+ */
+@State(Scope.Benchmark)
+public class AspectRatioBenchmark {
+
+    private static final String[] RATIO_STRINGS = {"4:3", "16:9", "3:2", "1:1", "18:9"};
+
+    private Size[] mSizes;
+
+    private AspectRatio mRatio;
+
+    private SparseArrayRatioCache mSparseArrayCache;
+
+    @Setup
+    public void setUp() {
+        mSizes = DeviceSizes.get(DeviceSizes.OUTPUTS);
+        mRatio = AspectRatio.of(4, 3);
+        mSparseArrayCache = new SparseArrayRatioCache();
+    }
+
+    @Benchmark
+    public void of(Blackhole blackhole) {
+        for (Size size : mSizes) {
+            blackhole.consume(AspectRatio.of(size.getWidth(), size.getHeight()));
+        }
+    }
+
+    /** The same lookups from several threads at once */
+    @Benchmark
+    @Threads(4)
+    public void ofConcurrent(Blackhole blackhole) {
+        of(blackhole);
+    }
+
+    /** The same lookups in the former, single-threaded cache */
+    @Benchmark
+    public void ofSparseArray(Blackhole blackhole) {
+        for (Size size : mSizes) {
+            blackhole.consume(mSparseArrayCache.of(size.getWidth(), size.getHeight()));
+        }
+    }
+
+    @Benchmark
+    public void matches(Blackhole blackhole) {
+        for (Size size : mSizes) {
+            blackhole.consume(mRatio.matches(size));
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String s : RATIO_STRINGS) {
+            blackhole.consume(AspectRatio.parse(s));
+        }
+    }
+
+}
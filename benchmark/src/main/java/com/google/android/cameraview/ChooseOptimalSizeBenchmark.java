@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SortedSet;
+
+/**
+ * Choosing the preview size for a surface, as done by the camera implementations whenever the
+ * preview is laid out.
+ */
+@State(Scope.Benchmark)
+public class ChooseOptimalSizeBenchmark {
+
+    @Param({DeviceSizes.OUTPUTS, DeviceSizes.MANY_OUTPUTS})
+    public String sizeList;
+
+    /** The surface size, longer side first; a phone screen, and one larger than any size */
+    @Param({"1920x1080", "5000x5000"})
+    public String surface;
+
+    /** A 1080p frame with 12 bits per pixel */
+    private static final long MAX_BYTES_PER_FRAME = 1920 * 1080 * 12 / 8;
+
+    private SizeMap mSizeMap;
+
+    private AspectRatio mRatio;
+
+    private SortedSet<Size> mCandidates;
+
+    private int mSurfaceWidth;
+
+    private int mSurfaceHeight;
+
+    @Setup
+    public void setUp() {
+        mSizeMap = new SizeMap();
+        for (Size size : DeviceSizes.get(sizeList)) {
+            mSizeMap.add(size);
+        }
+        mSizeMap.freeze();
+        mRatio = AspectRatio.of(16, 9);
+        mCandidates = mSizeMap.sizes(mRatio);
+        final int x = surface.indexOf('x');
+        mSurfaceWidth = Integer.parseInt(surface.substring(0, x));
+        mSurfaceHeight = Integer.parseInt(surface.substring(x + 1));
+    }
+
+    /** The linear scan that the camera implementations used before, as a baseline */
+    @Benchmark
+    public Size linearScan() {
+        Size result = null;
+        for (Size size : mCandidates) {
+            if (mSurfaceWidth <= size.getWidth() && mSurfaceHeight <= size.getHeight()) {
+                return size;
+            }
+            result = size;
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Size smallestCovering() {
+        return SizeSelector.select(mSizeMap, mRatio,
+                SizeSelector.smallestCovering(mSurfaceWidth, mSurfaceHeight));
+    }
+
+    @Benchmark
+    public Size closestArea() {
+        return SizeSelector.select(mSizeMap, mRatio,
+                SizeSelector.closestArea(mSurfaceWidth, mSurfaceHeight));
+    }
+
+    @Benchmark
+    public Size coveringWithinBandwidth() {
+        return SizeSelector.select(mSizeMap, mRatio, SizeSelector.coveringWithinBandwidth(
+                mSurfaceWidth, mSurfaceHeight, MAX_BYTES_PER_FRAME, 12));
+    }
+
+}
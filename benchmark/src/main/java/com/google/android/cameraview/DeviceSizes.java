@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Size lists used by the benchmarks. They are modeled on what phones report to the camera APIs.
+ */
+final class DeviceSizes {
+
+    /** Preview sizes of a typical Camera1 device. */
+    static final String PREVIEW = "PREVIEW";
+
+    /** Output sizes of a typical Camera2 device with a 12 megapixel sensor. */
+    static final String OUTPUTS = "OUTPUTS";
+
+    /**
+     * Several hundred output sizes, as reported by devices that list many high resolution
+     * sizes (see {@code Camera2Api23.collectPictureSizes}).
+     */
+    static final String MANY_OUTPUTS = "MANY_OUTPUTS";
+
+    private static final int[] PREVIEW_SIZES = {
+            1920, 1080, 1440, 1080, 1280, 960, 1280, 768, 1280, 720, 1024, 768, 800, 600,
+            800, 480, 720, 480, 640, 480, 352, 288, 320, 240, 176, 144,
+    };
+
+    private static final int[] OUTPUT_SIZES = {
+            4032, 3024, 4000, 3000, 3840, 2160, 3288, 2480, 3200, 2400, 2592, 1944, 2688, 1512,
+            2048, 1536, 1920, 1080, 1600, 1200, 1440, 1080, 1280, 960, 1280, 768, 1280, 720,
+            1024, 768, 800, 600, 864, 480, 800, 480, 720, 480, 640, 480, 480, 640, 640, 360,
+            352, 288, 320, 240, 176, 144, 160, 120,
+    };
+
+    private static final int[][] RATIOS = {
+            {4, 3}, {16, 9}, {3, 2}, {5, 3}, {11, 9}, {1, 1}, {18, 9}, {5, 4}, {3, 4}, {9, 16},
+            {16, 10}, {21, 9},
+    };
+
+    private DeviceSizes() {
+    }
+
+    static Size[] get(String name) {
+        switch (name) {
+            case PREVIEW:
+                return toSizes(PREVIEW_SIZES);
+            case OUTPUTS:
+                return toSizes(OUTPUT_SIZES);
+            case MANY_OUTPUTS:
+                return manyOutputs();
+            default:
+                throw new IllegalArgumentException("Unknown size list: " + name);
+        }
+    }
+
+    private static Size[] toSizes(int[] dimensions) {
+        final Size[] sizes = new Size[dimensions.length / 2];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new Size(dimensions[i * 2], dimensions[i * 2 + 1]);
+        }
+        return sizes;
+    }
+
+    private static Size[] manyOutputs() {
+        final List<Size> sizes = new ArrayList<>();
+        for (int[] ratio : RATIOS) {
+            for (int unit = 16; unit * Math.max(ratio[0], ratio[1]) <= 4096; unit += 16) {
+                sizes.add(new Size(ratio[0] * unit, ratio[1] * unit));
+            }
+        }
+        return sizes.toArray(new Size[sizes.size()]);
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.graphics.Rect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Coordinate transforms and metering regions computed for every tap to focus.
+ */
+@State(Scope.Benchmark)
+public class MeteringRegionBenchmark {
+
+    private static final int[] SENSOR_ORIENTATIONS = {0, 90, 180, 270};
+
+    private Rect mCropRegion;
+
+    @Setup
+    public void setUp() {
+        mCropRegion = new Rect(0, 0, 4032, 3024);
+    }
+
+    @Benchmark
+    public void normalizedSensorCoords(Blackhole blackhole) {
+        for (int orientation : SENSOR_ORIENTATIONS) {
+            blackhole.consume(CameraUtil.normalizedSensorCoordsForNormalizedDisplayCoords(
+                    0.25f, 0.75f, orientation));
+        }
+    }
+
+    @Benchmark
+    public void afRegions(Blackhole blackhole) {
+        for (int orientation : SENSOR_ORIENTATIONS) {
+            blackhole.consume(AutoFocusHelper.afRegionsForNormalizedCoord(0.25f, 0.75f,
+                    mCropRegion, orientation));
+        }
+    }
+
+    @Benchmark
+    public void aeRegions(Blackhole blackhole) {
+        for (int orientation : SENSOR_ORIENTATIONS) {
+            blackhole.consume(AutoFocusHelper.aeRegionsForNormalizedCoord(0.25f, 0.75f,
+                    mCropRegion, orientation));
+        }
+    }
+
+}
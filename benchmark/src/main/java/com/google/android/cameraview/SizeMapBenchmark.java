@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Populating a {@link SizeMap} and looking up its buckets, as done every time a camera is
+ * opened and configured.
+ */
+@State(Scope.Benchmark)
+public class SizeMapBenchmark {
+
+    @Param({DeviceSizes.PREVIEW, DeviceSizes.OUTPUTS, DeviceSizes.MANY_OUTPUTS})
+    public String sizeList;
+
+    private Size[] mSizes;
+
+    private SizeMap mSizeMap;
+
+    private AspectRatio[] mRatios;
+
+    @Setup
+    public void setUp() {
+        mSizes = DeviceSizes.get(sizeList);
+        mSizeMap = new SizeMap();
+        for (Size size : mSizes) {
+            mSizeMap.add(size);
+        }
+        mRatios = mSizeMap.ratios().toArray(new AspectRatio[0]);
+    }
+
+    @Benchmark
+    public SizeMap add() {
+        final SizeMap sizeMap = new SizeMap();
+        for (Size size : mSizes) {
+            sizeMap.add(size);
+        }
+        return sizeMap;
+    }
+
+    @Benchmark
+    public void sizes(Blackhole blackhole) {
+        for (AspectRatio ratio : mRatios) {
+            blackhole.consume(mSizeMap.sizes(ratio));
+        }
+    }
+
+}
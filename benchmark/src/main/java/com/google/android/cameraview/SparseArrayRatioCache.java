@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.v4.util.SparseArrayCompat;
+
+/**
+ * The interning cache that {@link AspectRatio#of(int, int)} used before it was made lock-free,
+ * kept as a baseline for {@link AspectRatioBenchmark}. It is not thread-safe.
+ */
+final class SparseArrayRatioCache {
+
+    private final SparseArrayCompat<SparseArrayCompat<Object>> mCache
+            = new SparseArrayCompat<>(16);
+
+    Object of(int x, int y) {
+        int gcd = gcd(x, y);
+        x /= gcd;
+        y /= gcd;
+        SparseArrayCompat<Object> arrayX = mCache.get(x);
+        if (arrayX == null) {
+            Object ratio = new int[]{x, y};
+            arrayX = new SparseArrayCompat<>();
+            arrayX.put(y, ratio);
+            mCache.put(x, arrayX);
+            return ratio;
+        } else {
+            Object ratio = arrayX.get(y);
+            if (ratio == null) {
+                ratio = new int[]{x, y};
+                arrayX.put(y, ratio);
+            }
+            return ratio;
+        }
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int c = b;
+            b = a % b;
+            a = c;
+        }
+        return a;
+    }
+
+}
@@ -21,12 +21,8 @@ import android.app.Dialog;
 import android.content.DialogInterface;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringRes;
 import android.support.design.widget.FloatingActionButton;
@@ -46,12 +42,13 @@ import android.widget.ImageView;
 import android.widget.Toast;
 import com.google.android.cameraview.AspectRatio;
 import com.google.android.cameraview.CameraView;
+import com.google.android.cameraview.Picture;
+import com.google.android.cameraview.PictureThumbnailer;
+import com.google.android.cameraview.PictureWriter;
 import com.google.android.cameraview.Size;
 import com.google.android.cameraview.SizeMap;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Set;
 
 
@@ -69,6 +66,8 @@ public class MainActivity extends AppCompatActivity implements
 
     private static final String FRAGMENT_DIALOG = "dialog";
 
+    private static final int PICTURE_WRITER_CAPACITY = 4;
+
     private static final int[] FLASH_OPTIONS = {
             CameraView.FLASH_AUTO,
             CameraView.FLASH_OFF,
@@ -91,7 +90,9 @@ public class MainActivity extends AppCompatActivity implements
 
     private CameraView mCameraView;
 
-    private Handler mBackgroundHandler;
+    private PictureWriter mPictureWriter;
+
+    private PictureThumbnailer mPictureThumbnailer;
 
     private ImageView mImgPic;
 
@@ -191,13 +192,13 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (mBackgroundHandler != null) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                mBackgroundHandler.getLooper().quitSafely();
-            } else {
-                mBackgroundHandler.getLooper().quit();
-            }
-            mBackgroundHandler = null;
+        if (mPictureWriter != null) {
+            mPictureWriter.close();
+            mPictureWriter = null;
+        }
+        if (mPictureThumbnailer != null) {
+            mPictureThumbnailer.close();
+            mPictureThumbnailer = null;
         }
 
         if (mCameraView != null) {
@@ -269,23 +270,53 @@ public class MainActivity extends AppCompatActivity implements
         }
     }
 
-    private Handler getBackgroundHandler() {
-        if (mBackgroundHandler == null) {
-            HandlerThread thread = new HandlerThread("background");
-            thread.start();
-            mBackgroundHandler = new Handler(thread.getLooper());
+    private PictureWriter getPictureWriter() {
+        if (mPictureWriter == null) {
+            mPictureWriter = new PictureWriter(PICTURE_WRITER_CAPACITY);
         }
-        return mBackgroundHandler;
+        return mPictureWriter;
     }
 
-    public Bitmap bytes2Bimap(byte[] b) {
-        if (null != b && b.length != 0) {
-            return BitmapFactory.decodeByteArray(b, 0, b.length);
-        } else {
-            return null;
+    private final PictureWriter.Listener mPictureWriterListener = new PictureWriter.Listener() {
+
+        @Override
+        public void onPictureWritten(File file) {
+            final PictureWriter writer = mPictureWriter;
+            if (writer != null) {
+                Log.d(TAG, "Wrote " + file + " at " + writer.getThroughput() / 1024 + " KiB/s");
+            }
+        }
+
+        @Override
+        public void onWriteFailed(File file, IOException e) {
+            Log.w(TAG, "Cannot write to " + file, e);
+        }
+
+    };
+
+    private PictureThumbnailer getPictureThumbnailer() {
+        if (mPictureThumbnailer == null) {
+            mPictureThumbnailer = new PictureThumbnailer(
+                    getResources().getDimensionPixelSize(R.dimen.thumbnail_size));
         }
+        return mPictureThumbnailer;
     }
 
+    private final PictureThumbnailer.Listener mPictureThumbnailerListener
+            = new PictureThumbnailer.Listener() {
+
+        @Override
+        public void onThumbnailCreated(@NonNull Bitmap thumbnail) {
+            mImgPic.setImageBitmap(thumbnail);
+        }
+
+        @Override
+        public void onThumbnailFailed() {
+            Log.w(TAG, "Cannot decode the picture");
+        }
+
+    };
+
     private CameraView.Callback mCallback = new CameraView.Callback() {
 
         @Override
@@ -319,38 +350,20 @@ public class MainActivity extends AppCompatActivity implements
         }
 
         @Override
-        public void onPictureTaken(CameraView cameraView, final byte[] data) {
-            Log.d(TAG, "onPictureTaken " + data.length);
+        public void onPictureTaken(CameraView cameraView, Picture picture) {
+            Log.d(TAG, "onPictureTaken " + picture.getLength());
             Toast.makeText(cameraView.getContext(), R.string.picture_taken, Toast.LENGTH_SHORT).show();
 
             // just for preview
-            mImgPic.setImageBitmap(bytes2Bimap(data));
+            getPictureThumbnailer().createThumbnail(picture, mPictureThumbnailerListener);
 
             cameraView.resumePreview();
 
-            getBackgroundHandler().post(new Runnable() {
-                @Override
-                public void run() {
-                    File file = new File(getExternalFilesDir(Environment.DIRECTORY_PICTURES),
-                            "picture.jpg");
-                    OutputStream os = null;
-                    try {
-                        os = new FileOutputStream(file);
-                        os.write(data);
-                        os.close();
-                    } catch (IOException e) {
-                        Log.w(TAG, "Cannot write to " + file, e);
-                    } finally {
-                        if (os != null) {
-                            try {
-                                os.close();
-                            } catch (IOException e) {
-                                // Ignore
-                            }
-                        }
-                    }
-                }
-            });
+            File file = new File(getExternalFilesDir(Environment.DIRECTORY_PICTURES),
+                    "picture.jpg");
+            if (!getPictureWriter().write(picture, file, mPictureWriterListener)) {
+                Log.w(TAG, "Too many pictures waiting to be written; dropped " + file);
+            }
         }
 
         @Override
@@ -17,21 +17,22 @@
 package com.google.android.cameraview;
 
 import android.annotation.SuppressLint;
+import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
+import android.media.MediaRecorder;
 import android.os.Build;
-import android.os.Handler;
 import android.support.v4.util.SparseArrayCompat;
 import android.util.Log;
 import android.view.SurfaceHolder;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 
@@ -42,8 +43,14 @@ class Camera1 extends CameraViewImpl {
 
     private static final int INVALID_CAMERA_ID = -1;
 
+    /** Number of buffers the preview frames are written into. */
+    private static final int FRAME_BUFFER_COUNT = 3;
+
     private static final SparseArrayCompat<String> FLASH_MODES = new SparseArrayCompat<>();
 
+    /** The info of each camera, queried once per process. Guarded by the class. */
+    private static Camera.CameraInfo[] sCameraInfos;
+
     static {
         FLASH_MODES.put(Constants.FLASH_OFF, Camera.Parameters.FLASH_MODE_OFF);
         FLASH_MODES.put(Constants.FLASH_ON, Camera.Parameters.FLASH_MODE_ON);
@@ -58,40 +65,92 @@ class Camera1 extends CameraViewImpl {
 
     private final AtomicBoolean isAutoFocusInProgress = new AtomicBoolean(false);
 
-    Camera mCamera;
+    volatile Camera mCamera;
 
     private Camera.Parameters mCameraParameters;
 
     private final Camera.CameraInfo mCameraInfo = new Camera.CameraInfo();
 
-    private final SizeMap mPreviewSizes = new SizeMap();
+    private volatile SizeMap mPreviewSizes = new SizeMap();
 
-    private final SizeMap mPictureSizes = new SizeMap();
+    private volatile SizeMap mPictureSizes = new SizeMap();
 
-    private AspectRatio mAspectRatio;
+    private volatile AspectRatio mAspectRatio;
 
     private boolean mShowingPreview;
 
-    private boolean mAutoFocus;
+    private volatile boolean mAutoFocus;
+
+    /** Whether the focus mode currently applied is a continuous one. */
+    private volatile boolean mContinuousFocus;
+
+    /** Capabilities of the opened camera, also read from other threads than the camera one. */
+    private volatile CameraCapabilities mCapabilities;
+
+    private volatile JpegOrientation mJpegOrientation;
 
-    private int mFacing;
+    private volatile int mFacing;
 
-    private int mFlash;
+    private volatile int mFlash;
 
-    private int mDisplayOrientation;
+    private volatile int mDisplayOrientation;
 
-    private float mZoom = 1.f;
+    private volatile float mZoom = 1.f;
 
     private CameraCoordinateTransformer mCoordinateTransformer;
 
     private Rect mPreviewRect = new Rect(0, 0, 0, 0);
 
-    private final Handler mCameraHandler;
+    private volatile FrameListener mFrameListener;
+
+    /** The video being recorded, set on the camera thread. */
+    private volatile VideoRecording mRecording;
+
+    /**
+     * Whether the camera is to be reconfigured once {@link #mRecording} is stopped. Camera thread
+     * only.
+     */
+    private boolean mReconfigureAfterRecording;
+
+    /** The buffers currently queued to {@link #mCamera} for preview frames. */
+    private volatile PreviewFrame[] mPreviewFrames;
+
+    /** The camera {@link #mPreviewFrames} were queued to. */
+    private volatile Camera mPreviewFramesCamera;
+
+    private final Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            reportFirstFrame();
+            final FrameListener listener = mFrameListener;
+            final PreviewFrame frame = findPreviewFrame(data);
+            if (listener == null || frame == null) {
+                return;
+            }
+            frame.reset(System.nanoTime());
+            try {
+                listener.onFrame(frame);
+            } finally {
+                frame.close();
+            }
+        }
+    };
+
+    /** Reports the first preview frame when no frame listener receives preview frames. */
+    private final Camera.PreviewCallback mFirstFrameCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            reportFirstFrame();
+        }
+    };
+
+    /** Whether the first preview frame is still to be reported. Camera thread only. */
+    private boolean mAwaitingFirstFrame;
 
     private final Runnable mReturnToContinuousAFRunnable = new Runnable() {
         @Override
         public void run() {
-            if (setAutoFocusInternal(mAutoFocus)) {
+            if (isCameraOpened() && setAutoFocusInternal(mAutoFocus)) {
                 mCamera.setParameters(mCameraParameters);
                 mCamera.cancelAutoFocus();
             }
@@ -100,16 +159,20 @@ class Camera1 extends CameraViewImpl {
 
     Camera1(Callback callback, PreviewImpl preview) {
         super(callback, preview);
-        mCameraHandler = new Handler();
         preview.setCallback(new PreviewImpl.Callback() {
             @Override
             public void onSurfaceChanged() {
-                mPreviewRect.set(0, 0, mPreview.getWidth(), mPreview.getHeight());
-                resetCoordinateTransformer();
-                if (mCamera != null) {
-                    setUpPreview();
-                    adjustCameraParameters();
-                }
+                runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPreviewRect.set(0, 0, mPreview.getWidth(), mPreview.getHeight());
+                        resetCoordinateTransformer();
+                        if (mCamera != null && !deferWhileRecording()) {
+                            setUpPreview();
+                            adjustCameraParameters();
+                        }
+                    }
+                });
             }
         });
     }
@@ -119,9 +182,16 @@ class Camera1 extends CameraViewImpl {
         if (zoom == mZoom) {
             return;
         }
-        if (setZoomInternal(zoom)) {
-            mCamera.setParameters(mCameraParameters);
-        }
+        mZoom = zoom;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                // Apply the latest zoom; later calls may have changed it since this was posted
+                if (setZoomInternal(mZoom)) {
+                    mCamera.setParameters(mCameraParameters);
+                }
+            }
+        });
     }
 
     @Override
@@ -131,40 +201,80 @@ class Camera1 extends CameraViewImpl {
 
     @Override
     public float getMaxZoom() {
-        if (mCameraParameters == null) return 1.f;
-
-        List<Integer> zoomRatios = mCameraParameters.getZoomRatios();
-        if (zoomRatios.isEmpty()) return 1.f;
-
-        return zoomRatios.get(zoomRatios.size() - 1) / 100.f;
+        final CameraCapabilities capabilities = mCapabilities;
+        return capabilities == null ? 1.f : capabilities.getMaxZoom();
     }
 
     @Override
     public boolean start() {
         chooseCamera();
 
-        if (!openCamera()) {
+        if (mCameraId == INVALID_CAMERA_ID) {
             mCallback.onCameraNotAvailable();
             return false;
         }
 
-        if (mPreview.isReady()) {
-            setUpPreview();
-        }
-        mShowingPreview = true;
-        mCamera.startPreview();
+        // Opening the camera takes hundreds of milliseconds on some devices; the result is
+        // reported through onCameraOpened and onCameraConfigured.
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                startCamera();
+            }
+        });
         return true;
     }
 
+    /**
+     * Opens the camera and starts the preview. This runs on the camera thread.
+     */
+    private void startCamera() {
+        try {
+            if (!openCamera()) {
+                mCallback.onCameraNotAvailable();
+                return;
+            }
+            if (mPreview.isReady()) {
+                setUpPreview();
+            }
+            mShowingPreview = true;
+            mCamera.startPreview();
+            mCallback.onPhase(PhaseTimings.PHASE_SESSION_CONFIGURED);
+            mAwaitingFirstFrame = true;
+            if (mFrameListener == null) {
+                // Frames are not delivered otherwise; this callback is dropped after one frame
+                mCamera.setOneShotPreviewCallback(mFirstFrameCallback);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to open camera " + mCameraId, e);
+            releaseCamera();
+            mCallback.onCameraNotAvailable();
+        }
+    }
+
     @Override
     public void stop() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                stopCamera();
+            }
+        });
+    }
+
+    /**
+     * Stops the preview and releases the camera. This runs on the camera thread.
+     */
+    private void stopCamera() {
+        finishRecording();
+        mReconfigureAfterRecording = false;
         if (mCamera != null) {
             mCamera.stopPreview();
         }
         mShowingPreview = false;
         releaseCamera();
 
-        mCameraHandler.removeCallbacks(mReturnToContinuousAFRunnable);
+        getCameraHandler().removeCallbacks(mReturnToContinuousAFRunnable);
     }
 
     // Suppresses Camera#setPreviewTexture
@@ -202,12 +312,16 @@ class Camera1 extends CameraViewImpl {
             return;
         }
         mFacing = facing;
-        if (isCameraOpened()) {
-            stop();
-            start();
-        }
-
-        resetCoordinateTransformer();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened()) {
+                    stopCamera();
+                    start();
+                }
+                resetCoordinateTransformer();
+            }
+        });
     }
 
     @Override
@@ -217,14 +331,8 @@ class Camera1 extends CameraViewImpl {
 
     @Override
     public Set<AspectRatio> getSupportedAspectRatios() {
-        SizeMap idealAspectRatios = mPreviewSizes;
-        Set<AspectRatio> ratios = new TreeSet<>(idealAspectRatios.ratios());
-        for (AspectRatio aspectRatio : ratios) {
-            if (mPictureSizes.sizes(aspectRatio) == null) {
-                idealAspectRatios.remove(aspectRatio);
-            }
-        }
-        return idealAspectRatios.ratios();
+        // Ratios without picture sizes are already left out of the cached preview sizes
+        return mPreviewSizes.ratios();
     }
 
     @Override
@@ -239,7 +347,14 @@ class Camera1 extends CameraViewImpl {
                 throw new UnsupportedOperationException(ratio + " is not supported");
             } else {
                 mAspectRatio = ratio;
-                adjustCameraParameters();
+                runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isCameraOpened()) {
+                            adjustCameraParameters();
+                        }
+                    }
+                });
                 return true;
             }
         }
@@ -252,13 +367,19 @@ class Camera1 extends CameraViewImpl {
     }
 
     @Override
-    public void setAutoFocus(boolean autoFocus) {
+    public void setAutoFocus(final boolean autoFocus) {
         if (mAutoFocus == autoFocus) {
             return;
         }
-        if (setAutoFocusInternal(autoFocus)) {
-            mCamera.setParameters(mCameraParameters);
-        }
+        mAutoFocus = autoFocus;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (setAutoFocusInternal(autoFocus)) {
+                    mCamera.setParameters(mCameraParameters);
+                }
+            }
+        });
     }
 
     @Override
@@ -266,18 +387,23 @@ class Camera1 extends CameraViewImpl {
         if (!isCameraOpened()) {
             return mAutoFocus;
         }
-        String focusMode = mCameraParameters.getFocusMode();
-        return focusMode != null && focusMode.contains("continuous");
+        return mContinuousFocus;
     }
 
     @Override
-    public void setFlash(int flash) {
+    public void setFlash(final int flash) {
         if (flash == mFlash) {
             return;
         }
-        if (setFlashInternal(flash)) {
-            mCamera.setParameters(mCameraParameters);
-        }
+        mFlash = flash;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened() && setFlashInternal(flash)) {
+                    mCamera.setParameters(mCameraParameters);
+                }
+            }
+        });
     }
 
     @Override
@@ -291,12 +417,36 @@ class Camera1 extends CameraViewImpl {
             throw new IllegalStateException(
                     "Camera is not ready. Call start() before takePicture().");
         }
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    takePictureOnCameraThread();
+                } catch (RuntimeException e) {
+                    // This no longer runs inside CameraView.takePicture(); report failures here
+                    Log.e(TAG, "Failed to take a picture.", e);
+                    isPictureCaptureInProgress.set(false);
+                    mCallback.onTakePictureFailed(e);
+                }
+            }
+        });
+    }
+
+    private void takePictureOnCameraThread() {
+        if (!isCameraOpened()) {
+            throw new IllegalStateException("Camera was closed before taking a picture.");
+        }
+        if (mRecording != null) {
+            takeVideoSnapshot();
+            return;
+        }
         if (getAutoFocus() || isAutoFocusInProgress.get()) {
             mCamera.cancelAutoFocus();
             mCamera.autoFocus(new Camera.AutoFocusCallback() {
                 @Override
                 public void onAutoFocus(boolean success, Camera camera) {
                     isAutoFocusInProgress.set(false);
+                    mCallback.onPhase(PhaseTimings.PHASE_FOCUS_LOCKED);
                     takePictureInternal();
                 }
             });
@@ -310,6 +460,7 @@ class Camera1 extends CameraViewImpl {
             mCamera.takePicture(new Camera.ShutterCallback() {
                 @Override
                 public void onShutter() {
+                    mCallback.onPhase(PhaseTimings.PHASE_CAPTURE_COMPLETED);
                     if (setAutoFocusInternal(mAutoFocus)) {
                         mCamera.setParameters(mCameraParameters);
                     }
@@ -318,31 +469,213 @@ class Camera1 extends CameraViewImpl {
                 @Override
                 public void onPictureTaken(byte[] data, Camera camera) {
                     isPictureCaptureInProgress.set(false);
-                    mCallback.onPictureTaken(data);
+                    mCallback.onPictureTaken(toPicture(data));
                     //Check if camera still previewing
                     if (mShowingPreview) {
                         camera.cancelAutoFocus();
-//                        camera.startPreview();
+                        if (getKeepPreviewRunning()) {
+                            // The camera stops the preview for pictures; restart it right away
+                            camera.startPreview();
+                        }
                     }
                 }
             });
-            mCameraHandler.removeCallbacks(mReturnToContinuousAFRunnable);
+            getCameraHandler().removeCallbacks(mReturnToContinuousAFRunnable);
+        }
+    }
+
+    /**
+     * Takes a picture while a video is being recorded. The camera belongs to the recorder, so it
+     * is neither focused nor reconfigured, and its preview keeps running.
+     */
+    private void takeVideoSnapshot() {
+        if (!mCameraParameters.isVideoSnapshotSupported()) {
+            throw new IllegalStateException("Video snapshots are not supported by this camera.");
+        }
+        if (!isPictureCaptureInProgress.getAndSet(true)) {
+            mCamera.takePicture(new Camera.ShutterCallback() {
+                @Override
+                public void onShutter() {
+                    mCallback.onPhase(PhaseTimings.PHASE_CAPTURE_COMPLETED);
+                }
+            }, null, null, new Camera.PictureCallback() {
+                @Override
+                public void onPictureTaken(byte[] data, Camera camera) {
+                    isPictureCaptureInProgress.set(false);
+                    mCallback.onPictureTaken(toPicture(data));
+                }
+            });
+        }
+    }
+
+    /**
+     * Wraps the JPEG data from the camera, fixing its orientation tag if needed. The vendor
+     * decides whether {@link Camera.Parameters#setRotation(int)} rotates the pixels or only sets
+     * the tag.
+     */
+    private Picture toPicture(byte[] data) {
+        final Camera.Size size = mCameraParameters.getPictureSize();
+        return mJpegOrientation.normalize(Picture.wrap(data),
+                calcCameraRotation(mDisplayOrientation), size.width, size.height);
+    }
+
+    @Override
+    public void startRecording(final File file, final boolean audio) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mRecording != null) {
+                    mCallback.onRecordingFailed(new IllegalStateException("Already recording"));
+                    return;
+                }
+                if (!isCameraOpened() || !mShowingPreview) {
+                    mCallback.onRecordingFailed(new IllegalStateException("Camera is not ready"));
+                    return;
+                }
+                final Camera.Size previewSize = mCameraParameters.getPreviewSize();
+                final Size size = VideoRecording.chooseSize(mCapabilities.getVideoSizes(),
+                        mAspectRatio, new Size(previewSize.width, previewSize.height));
+                final VideoRecording recording = new VideoRecording(file);
+                // The camera is handed over to the recorder, which takes the preview frames
+                mCamera.unlock();
+                try {
+                    recording.getRecorder().setCamera(mCamera);
+                    recording.prepare(MediaRecorder.VideoSource.CAMERA, size, audio,
+                            calcCameraRotation(mDisplayOrientation));
+                    recording.start();
+                } catch (IOException | RuntimeException e) {
+                    recording.stop();
+                    mCamera.lock();
+                    mCallback.onRecordingFailed(e);
+                    return;
+                }
+                mRecording = recording;
+                mCallback.onRecordingStarted();
+            }
+        });
+    }
+
+    @Override
+    public void stopRecording() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                finishRecording();
+                if (mReconfigureAfterRecording && isCameraOpened()) {
+                    // Apply the changes that were made while the recorder had the camera
+                    mReconfigureAfterRecording = false;
+                    if (mPreview.isReady()) {
+                        setUpPreview();
+                    }
+                    adjustCameraParameters();
+                    updatePreviewCallback();
+                }
+            }
+        });
+    }
+
+    /**
+     * The camera cannot be reconfigured while it is handed over to the recorder. This runs on
+     * the camera thread.
+     *
+     * @return {@code true} if a video is being recorded; the camera is then reconfigured once
+     * the recording is stopped.
+     */
+    private boolean deferWhileRecording() {
+        if (mRecording == null) {
+            return false;
+        }
+        mReconfigureAfterRecording = true;
+        return true;
+    }
+
+    @Override
+    public boolean isRecording() {
+        return mRecording != null;
+    }
+
+    /**
+     * Stops {@link #mRecording}, takes the camera back from the recorder and reports the result.
+     * This runs on the camera thread.
+     */
+    private void finishRecording() {
+        final VideoRecording recording = mRecording;
+        if (recording == null) {
+            return;
+        }
+        mRecording = null;
+        final boolean valid = recording.stop();
+        if (mCamera != null) {
+            mCamera.lock();
+        }
+        if (valid) {
+            mCallback.onVideoRecorded(recording.getFile());
+        } else {
+            mCallback.onRecordingFailed(new IllegalStateException("No video was recorded"));
         }
     }
 
     @Override
     public void resumePreview() {
-        if (isCameraOpened()) {
-            mCamera.startPreview();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened()) {
+                    mCamera.startPreview();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setFrameListener(FrameListener listener) {
+        final boolean changed = (mFrameListener == null) != (listener == null);
+        mFrameListener = listener;
+        if (changed) {
+            runOnCameraThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCameraOpened()) {
+                        updatePreviewCallback();
+                    }
+                }
+            });
         }
     }
 
     @Override
-    public void setDisplayOrientation(int displayOrientation) {
+    public void setSizePolicy(SizePolicy policy) {
+        super.setSizePolicy(policy);
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened()) {
+                    adjustCameraParameters();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setDisplayOrientation(final int displayOrientation) {
         if (mDisplayOrientation == displayOrientation) {
             return;
         }
         mDisplayOrientation = displayOrientation;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                applyDisplayOrientation();
+            }
+        });
+    }
+
+    /**
+     * Applies {@link #mDisplayOrientation} to the camera. This runs on the camera thread, and
+     * always applies the latest orientation, even if it changed again since this was posted.
+     */
+    private void applyDisplayOrientation() {
+        final int displayOrientation = mDisplayOrientation;
         resetCoordinateTransformer();
         if (isCameraOpened()) {
             mCameraParameters.setRotation(calcCameraRotation(displayOrientation));
@@ -365,11 +698,25 @@ class Camera1 extends CameraViewImpl {
     }
 
     @Override
-    public void setFocusAt(int x, int y) {
+    public void setFocusAt(final int x, final int y) {
         if (isPictureCaptureInProgress.get()) {
             return;
         }
         mCallback.onFocusAt(x, y);
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened()) {
+                    focusAt(x, y);
+                }
+            }
+        });
+    }
+
+    /**
+     * Triggers auto-focus at the specified preview coordinates. This runs on the camera thread.
+     */
+    private void focusAt(int x, int y) {
         if (isAutoFocusInProgress.getAndSet(false)) {
             mCamera.cancelAutoFocus();
         }
@@ -386,35 +733,46 @@ class Camera1 extends CameraViewImpl {
     }
 
     private boolean isFocusAreaSupported() {
-        if (Build.VERSION.SDK_INT >= 14) {
-            List<String> supportedFocusModes = mCameraParameters.getSupportedFocusModes();
-            return (supportedFocusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO)
-                    && mCameraParameters.getMaxNumFocusAreas() > 0);
-        }
-        return false;
+        final CameraCapabilities capabilities = mCapabilities;
+        return capabilities != null && capabilities.isFocusAreaSupported();
     }
 
     boolean isMeteringAreaSupported() {
-        if (Build.VERSION.SDK_INT >= 14) {
-            return mCameraParameters.getMaxNumMeteringAreas() > 0;
-        }
-        return false;
+        final CameraCapabilities capabilities = mCapabilities;
+        return capabilities != null && capabilities.isMeteringAreaSupported();
     }
 
     /**
      * This rewrites {@link #mCameraId} and {@link #mCameraInfo}.
      */
     private void chooseCamera() {
-        for (int i = 0, count = Camera.getNumberOfCameras(); i < count; i++) {
-            Camera.getCameraInfo(i, mCameraInfo);
-            if (mCameraInfo.facing == mFacing) {
+        final Camera.CameraInfo[] infos = getCameraInfos();
+        for (int i = 0; i < infos.length; i++) {
+            if (infos[i].facing == mFacing) {
                 mCameraId = i;
+                mCameraInfo.facing = infos[i].facing;
+                mCameraInfo.orientation = infos[i].orientation;
                 return;
             }
         }
         mCameraId = INVALID_CAMERA_ID;
     }
 
+    /**
+     * @return The info of all the cameras. It is only queried once per process.
+     */
+    private static synchronized Camera.CameraInfo[] getCameraInfos() {
+        if (sCameraInfos == null) {
+            final Camera.CameraInfo[] infos = new Camera.CameraInfo[Camera.getNumberOfCameras()];
+            for (int i = 0; i < infos.length; i++) {
+                infos[i] = new Camera.CameraInfo();
+                Camera.getCameraInfo(i, infos[i]);
+            }
+            sCameraInfos = infos;
+        }
+        return sCameraInfos;
+    }
+
     private boolean openCamera() {
         if (mCamera != null) {
             releaseCamera();
@@ -424,23 +782,25 @@ class Camera1 extends CameraViewImpl {
             return false;
         }
 
-        mCamera = Camera.open(mCameraId);
-        mCameraParameters = mCamera.getParameters();
-        // Supported preview sizes
-        mPreviewSizes.clear();
-        for (Camera.Size size : mCameraParameters.getSupportedPreviewSizes()) {
-            mPreviewSizes.add(new Size(size.width, size.height));
-        }
-        // Supported picture sizes;
-        mPictureSizes.clear();
-        for (Camera.Size size : mCameraParameters.getSupportedPictureSizes()) {
-            mPictureSizes.add(new Size(size.width, size.height));
+        final Camera camera = Camera.open(mCameraId);
+        mCallback.onPhase(PhaseTimings.PHASE_OPENED);
+        mCameraParameters = camera.getParameters();
+        final String key = "Camera1/" + mCameraId;
+        CameraCapabilities capabilities = CameraCapabilities.get(key);
+        if (capabilities == null) {
+            capabilities = CameraCapabilities.put(key, buildCapabilities());
         }
+        mCapabilities = capabilities;
+        mJpegOrientation = new JpegOrientation(key);
+        mPreviewSizes = capabilities.getPreviewSizes();
+        mPictureSizes = capabilities.getPictureSizes();
+        mCamera = camera;
         // AspectRatio
         if (mAspectRatio == null) {
             mAspectRatio = Constants.DEFAULT_ASPECT_RATIO;
         }
         adjustCameraParameters();
+        updatePreviewCallback();
         mCamera.setDisplayOrientation(calcDisplayOrientation(mDisplayOrientation));
         mCallback.onCameraOpened();
         mCallback.onCameraConfigured();
@@ -448,6 +808,51 @@ class Camera1 extends CameraViewImpl {
         return true;
     }
 
+    /**
+     * Reads the capabilities of the camera from {@link #mCameraInfo} and
+     * {@link #mCameraParameters}.
+     */
+    private CameraCapabilities buildCapabilities() {
+        // Supported preview sizes
+        SizeMap previewSizes = new SizeMap();
+        for (Camera.Size size : mCameraParameters.getSupportedPreviewSizes()) {
+            previewSizes.add(new Size(size.width, size.height));
+        }
+        // Supported picture sizes;
+        SizeMap pictureSizes = new SizeMap();
+        for (Camera.Size size : mCameraParameters.getSupportedPictureSizes()) {
+            pictureSizes.add(new Size(size.width, size.height));
+        }
+        List<Integer> zoomRatios = mCameraParameters.isZoomSupported()
+                ? mCameraParameters.getZoomRatios() : null;
+        List<String> focusModes = mCameraParameters.getSupportedFocusModes();
+        List<String> flashModes = mCameraParameters.getSupportedFlashModes();
+        // Null if videos can only be recorded in preview sizes
+        SizeMap videoSizes = new SizeMap();
+        List<Camera.Size> supportedVideoSizes = mCameraParameters.getSupportedVideoSizes();
+        if (supportedVideoSizes != null) {
+            for (Camera.Size size : supportedVideoSizes) {
+                videoSizes.add(new Size(size.width, size.height));
+            }
+        }
+        return new CameraCapabilities.Builder()
+                .setSizes(previewSizes, pictureSizes)
+                .setVideoSizes(videoSizes.isEmpty() ? previewSizes : videoSizes)
+                .setSensorOrientation(mCameraInfo.orientation)
+                .setMaxZoom(zoomRatios == null || zoomRatios.isEmpty()
+                        ? 1.f : zoomRatios.get(zoomRatios.size() - 1) / 100.f)
+                .setAutoFocusSupported(focusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO)
+                        || focusModes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE))
+                .setFlashSupported(flashModes != null
+                        && flashModes.contains(Camera.Parameters.FLASH_MODE_ON))
+                .setFocusAreaSupported(Build.VERSION.SDK_INT >= 14
+                        && focusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO)
+                        && mCameraParameters.getMaxNumFocusAreas() > 0)
+                .setMeteringAreaSupported(Build.VERSION.SDK_INT >= 14
+                        && mCameraParameters.getMaxNumMeteringAreas() > 0)
+                .build();
+    }
+
     private AspectRatio chooseAspectRatio() {
         AspectRatio r = null;
         for (AspectRatio ratio : mPreviewSizes.ratios()) {
@@ -460,45 +865,49 @@ class Camera1 extends CameraViewImpl {
     }
 
     void adjustCameraParameters() {
-        SortedSet<Size> sizes = mPreviewSizes.sizes(mAspectRatio);
-        if (sizes == null) { // Not supported
+        if (deferWhileRecording()) {
+            return;
+        }
+        if (mPreviewSizes.sizes(mAspectRatio) == null) { // Not supported
             mAspectRatio = chooseAspectRatio();
-            sizes = mPreviewSizes.sizes(mAspectRatio);
         }
-        Size previewSize = chooseOptimalSize(sizes);
+        Size previewSize = chooseOptimalSize();
         if (mCallback != null) {
             previewSize = mCallback.onChoosePreviewSize(mPreviewSizes, previewSize, mAspectRatio);
         }
-        final Camera.Size currentSize = mCameraParameters.getPictureSize();
-        if (currentSize.width != previewSize.getWidth() ||
-                currentSize.height != previewSize.getHeight()) {
-            Size pictureSize;
-            if (mPictureSizes.sizes(mAspectRatio) == null) {
-                pictureSize = previewSize;
-            } else {
-                // Largest picture size in this ratio
-                pictureSize = mPictureSizes.sizes(mAspectRatio).last();
-            }
+        Size pictureSize = SizeSelector.select(mPictureSizes, mAspectRatio,
+                getSizePolicy().pictureStrategy());
+        if (pictureSize == null) {
+            pictureSize = previewSize;
+        }
 
-            if (mCallback != null) {
-                pictureSize = mCallback.onChoosePictureSize(mPictureSizes, mAspectRatio);
-            }
+        if (mCallback != null) {
+            pictureSize = mCallback.onChoosePictureSize(mPictureSizes, pictureSize, mAspectRatio);
+        }
 
-            if (mShowingPreview) {
-                mCamera.stopPreview();
-            }
+        // The preview size can only be changed while the preview is stopped; the picture size
+        // can be changed at any time.
+        final Camera.Size currentPreviewSize = mCameraParameters.getPreviewSize();
+        final boolean previewSizeChanged = currentPreviewSize.width != previewSize.getWidth()
+                || currentPreviewSize.height != previewSize.getHeight();
+        final boolean restartPreview = previewSizeChanged && mShowingPreview;
+        if (restartPreview) {
+            mCamera.stopPreview();
+        }
 
-            // Always re-apply camera parameters
-            mCameraParameters.setPreviewSize(previewSize.getWidth(), previewSize.getHeight());
-            mCameraParameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
-            mCameraParameters.setRotation(calcCameraRotation(mDisplayOrientation));
-            setAutoFocusInternal(mAutoFocus);
-            setFlashInternal(mFlash);
-            setZoomInternal(mZoom);
-            mCamera.setParameters(mCameraParameters);
-            if (mShowingPreview) {
-                mCamera.startPreview();
-            }
+        // Always re-apply camera parameters
+        mCameraParameters.setPreviewSize(previewSize.getWidth(), previewSize.getHeight());
+        mCameraParameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
+        mCameraParameters.setRotation(calcCameraRotation(mDisplayOrientation));
+        setAutoFocusInternal(mAutoFocus);
+        setFlashInternal(mFlash);
+        setZoomInternal(mZoom);
+        mCamera.setParameters(mCameraParameters);
+        if (mPreviewFrames != null) {
+            updatePreviewCallback();
+        }
+        if (restartPreview) {
+            mCamera.startPreview();
         }
     }
 
@@ -540,9 +949,9 @@ class Camera1 extends CameraViewImpl {
     }
 
     @SuppressWarnings("SuspiciousNameCombination")
-    private Size chooseOptimalSize(SortedSet<Size> sizes) {
+    private Size chooseOptimalSize() {
         if (!mPreview.isReady()) { // Not yet laid out
-            return sizes.first(); // Return the smallest size
+            return mPreviewSizes.sizes(mAspectRatio).first(); // Return the smallest size
         }
         int desiredWidth;
         int desiredHeight;
@@ -555,19 +964,66 @@ class Camera1 extends CameraViewImpl {
             desiredWidth = surfaceWidth;
             desiredHeight = surfaceHeight;
         }
-        Size result = null;
-        for (Size size : sizes) { // Iterate from small to large
-            if (desiredWidth <= size.getWidth() && desiredHeight <= size.getHeight()) {
-                return size;
+        return SizeSelector.select(mPreviewSizes, mAspectRatio,
+                getSizePolicy().previewStrategy(desiredWidth, desiredHeight));
+    }
 
+    /**
+     * Installs or removes the preview callback depending on {@link #mFrameListener}, and makes
+     * sure that the queued buffers match the current preview size.
+     */
+    private void updatePreviewCallback() {
+        if (deferWhileRecording()) {
+            return;
+        }
+        if (mFrameListener == null) {
+            mCamera.setPreviewCallbackWithBuffer(null);
+            mPreviewFrames = null;
+            mPreviewFramesCamera = null;
+            return;
+        }
+        final Camera.Size size = mCameraParameters.getPreviewSize();
+        if (mPreviewFrames == null || mPreviewFramesCamera != mCamera
+                || mPreviewFrames[0].getWidth() != size.width
+                || mPreviewFrames[0].getHeight() != size.height) {
+            // Frames of the previous ring that are still retained are dropped when closed
+            final PreviewFrame[] frames = new PreviewFrame[FRAME_BUFFER_COUNT];
+            for (int i = 0; i < FRAME_BUFFER_COUNT; i++) {
+                frames[i] = new PreviewFrame(size.width, size.height);
+            }
+            mPreviewFrames = frames;
+            mPreviewFramesCamera = mCamera;
+            for (PreviewFrame frame : frames) {
+                mCamera.addCallbackBuffer(frame.mData);
+            }
+        }
+        mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+    }
+
+    private void reportFirstFrame() {
+        if (mAwaitingFirstFrame) {
+            mAwaitingFirstFrame = false;
+            mCallback.onPhase(PhaseTimings.PHASE_FIRST_FRAME);
+        }
+    }
+
+    private PreviewFrame findPreviewFrame(byte[] data) {
+        final PreviewFrame[] frames = mPreviewFrames;
+        if (frames == null || data == null) {
+            return null;
+        }
+        for (PreviewFrame frame : frames) {
+            if (frame.mData == data) {
+                return frame;
             }
-            result = size;
         }
-        return result;
+        return null;
     }
 
     private void releaseCamera() {
         if (mCamera != null) {
+            mPreviewFrames = null;
+            mPreviewFramesCamera = null;
             mCamera.release();
             mCamera = null;
             mCallback.onCameraClosed();
@@ -644,6 +1100,8 @@ class Camera1 extends CameraViewImpl {
             } else {
                 mCameraParameters.setFocusMode(modes.get(0));
             }
+            final String focusMode = mCameraParameters.getFocusMode();
+            mContinuousFocus = focusMode != null && focusMode.contains("continuous");
 
             if (Build.VERSION.SDK_INT >= 14 && hasManualFocus()) {
                 if (isFocusAreaSupported()) {
@@ -678,6 +1136,7 @@ class Camera1 extends CameraViewImpl {
                 mCameraParameters.setMeteringAreas(meteringArea);
             }
             mCameraParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+            mContinuousFocus = false;
             return true;
         } else {
             return false;
@@ -722,8 +1181,8 @@ class Camera1 extends CameraViewImpl {
      * Resume AF_MODE_CONTINUOUS_PICTURE after FOCUS_HOLD_MILLIS.
      */
     private void resumeContinuousAFAfterDelay(int millis) {
-        mCameraHandler.removeCallbacks(mReturnToContinuousAFRunnable);
-        mCameraHandler.postDelayed(mReturnToContinuousAFRunnable, millis);
+        getCameraHandler().removeCallbacks(mReturnToContinuousAFRunnable);
+        getCameraHandler().postDelayed(mReturnToContinuousAFRunnable, millis);
     }
 
     /**
@@ -738,12 +1197,18 @@ class Camera1 extends CameraViewImpl {
                 mFlash = flash;
                 return true;
             }
-            String currentMode = FLASH_MODES.get(mFlash);
+            String currentMode = mCameraParameters.getFlashMode();
             if (modes == null || !modes.contains(currentMode)) {
                 mCameraParameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
                 mFlash = Constants.FLASH_OFF;
                 return true;
             }
+            // The flash is not supported; keep the current one
+            for (int i = 0; i < FLASH_MODES.size(); i++) {
+                if (FLASH_MODES.valueAt(i).equals(currentMode)) {
+                    mFlash = FLASH_MODES.keyAt(i);
+                }
+            }
             return false;
         } else {
             mFlash = flash;
@@ -751,4 +1216,83 @@ class Camera1 extends CameraViewImpl {
         }
     }
 
+    /**
+     * A {@link Frame} backed by one of the NV21 buffers queued to the camera. It gets queued
+     * again when it is closed.
+     */
+    private class PreviewFrame extends Frame {
+
+        final byte[] mData;
+
+        private final int mWidth;
+
+        private final int mHeight;
+
+        private final ByteBuffer[] mPlanes = new ByteBuffer[3];
+
+        private long mTimestamp;
+
+        PreviewFrame(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+            final int ySize = width * height;
+            mData = new byte[ySize * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8];
+            mPlanes[0] = ByteBuffer.wrap(mData, 0, ySize).slice();
+            // NV21 stores V and U interleaved after Y
+            mPlanes[1] = ByteBuffer.wrap(mData, ySize + 1, mData.length - ySize - 1).slice();
+            mPlanes[2] = ByteBuffer.wrap(mData, ySize, mData.length - ySize - 1).slice();
+        }
+
+        void reset(long timestamp) {
+            reset();
+            mTimestamp = timestamp;
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return mWidth;
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return plane == 0 ? 1 : 2;
+        }
+
+        @Override
+        ByteBuffer buffer(int plane) {
+            return mPlanes[plane];
+        }
+
+        @Override
+        void release() {
+            final Camera camera = mCamera;
+            final PreviewFrame[] frames = mPreviewFrames;
+            if (camera == null || camera != mPreviewFramesCamera || frames == null) {
+                return;
+            }
+            for (PreviewFrame frame : frames) {
+                if (frame == this) {
+                    camera.addCallbackBuffer(mData);
+                    return;
+                }
+            }
+        }
+
+    }
+
 }
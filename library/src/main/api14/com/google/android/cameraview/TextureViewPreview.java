@@ -32,6 +32,12 @@ public class TextureViewPreview extends PreviewImpl {
 
     private int mDisplayOrientation;
 
+    /** The surface for the current {@link SurfaceTexture}. Guarded by this. */
+    private Surface mSurface;
+
+    /** The {@link SurfaceTexture} {@link #mSurface} was made for. Guarded by this. */
+    private SurfaceTexture mSurfaceTexture;
+
     TextureViewPreview(Context context, ViewGroup parent) {
         final View view = View.inflate(context, R.layout.texture_view, parent);
         mTextureView = (TextureView) view.findViewById(R.id.texture_view);
@@ -54,6 +60,7 @@ public class TextureViewPreview extends PreviewImpl {
             @Override
             public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
                 setSize(0, 0);
+                releaseSurface();
                 return true;
             }
 
@@ -70,9 +77,31 @@ public class TextureViewPreview extends PreviewImpl {
         mTextureView.getSurfaceTexture().setDefaultBufferSize(width, height);
     }
 
+    /**
+     * Returns the surface for the current {@link SurfaceTexture}. The same {@link Surface} is
+     * returned until the {@link SurfaceTexture} changes or is destroyed, so that camera sessions
+     * are not configured against a new native window for each call.
+     */
     @Override
-    public Surface getSurface() {
-        return new Surface(mTextureView.getSurfaceTexture());
+    public synchronized Surface getSurface() {
+        final SurfaceTexture surfaceTexture = mTextureView.getSurfaceTexture();
+        if (surfaceTexture == null) {
+            return null;
+        }
+        if (mSurface == null || mSurfaceTexture != surfaceTexture) {
+            releaseSurface();
+            mSurface = new Surface(surfaceTexture);
+            mSurfaceTexture = surfaceTexture;
+        }
+        return mSurface;
+    }
+
+    private synchronized void releaseSurface() {
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+            mSurfaceTexture = null;
+        }
     }
 
     @Override
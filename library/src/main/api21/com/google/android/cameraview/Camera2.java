@@ -21,11 +21,13 @@ import android.content.Context;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Rect;
+import android.graphics.YuvImage;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
@@ -33,15 +35,27 @@ import android.hardware.camera2.params.MeteringRectangle;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
-import android.os.Handler;
+import android.media.MediaRecorder;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.v4.util.ArrayMap;
+import android.support.v4.util.Pools;
 import android.util.Log;
 import android.util.SparseIntArray;
 import android.view.Surface;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
-import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SuppressWarnings("MissingPermission")
 @TargetApi(21)
@@ -58,74 +72,271 @@ class Camera2 extends CameraViewImpl {
      * Max preview height that is guaranteed by Camera2 API
      */
     private static final int MAX_PREVIEW_HEIGHT = 1080;
+    /**
+     * Max number of burst pictures that the app can hold on to before further pictures of the
+     * burst are dropped
+     */
+    private static final int MAX_BURST_PICTURES = 6;
+    /**
+     * Number of JPEG images that can be acquired from {@link #mImageReader} at the same time. The
+     * reader allocates its buffers on demand, so only bursts use this many.
+     */
+    private static final int MAX_PICTURE_IMAGES = MAX_BURST_PICTURES + 2;
+
+    /**
+     * Number of recent full resolution frames kept for zero shutter lag pictures
+     */
+    private static final int ZSL_RING_SIZE = 3;
+
+    /**
+     * Frame rate that the zero shutter lag frames have to sustain so as not to slow down the preview
+     */
+    private static final int ZSL_FRAME_RATE = 30;
+
+    private static final int ZSL_JPEG_QUALITY = 95;
+
+    /**
+     * The expected size of zero shutter lag pictures. At {@link #ZSL_JPEG_QUALITY}, they rarely
+     * take more; the buffer grows if they do.
+     */
+    private static final int ZSL_JPEG_BITS_PER_PIXEL = 6;
+
+    /** Encodes zero shutter lag pictures. Created on first use. */
+    private static ExecutorService sZslEncoder;
+    /**
+     * Max total size of the picture and zero shutter lag frame buffers kept in
+     * {@link #mPictureBufferPool}
+     */
+    private static final int MAX_POOLED_PICTURE_BYTES = 32 * 1024 * 1024;
+    /**
+     * Number of preview frames that can be handed out to {@link #mFrameListener} at the same time
+     */
+    private static final int FRAME_BUFFER_COUNT = 3;
 
     static {
         INTERNAL_FACINGS.put(Constants.FACING_BACK, CameraCharacteristics.LENS_FACING_BACK);
         INTERNAL_FACINGS.put(Constants.FACING_FRONT, CameraCharacteristics.LENS_FACING_FRONT);
     }
 
+    /** The camera IDs, queried once per process. Guarded by {@link #sCharacteristics}. */
+    private static String[] sCameraIds;
+
+    /** The characteristics of each camera, queried once per process. */
+    private static final ArrayMap<String, CameraCharacteristics> sCharacteristics
+            = new ArrayMap<>();
+
     private final CameraManager mCameraManager;
     private final ImageReader.OnImageAvailableListener mOnImageAvailableListener
             = new ImageReader.OnImageAvailableListener() {
 
         @Override
         public void onImageAvailable(ImageReader reader) {
-            try (Image image = reader.acquireNextImage()) {
-                Image.Plane[] planes = image.getPlanes();
-                if (planes.length > 0) {
-                    ByteBuffer buffer = planes[0].getBuffer();
-                    byte[] data = new byte[buffer.remaining()];
-                    buffer.get(data);
-                    mCallback.onPictureTaken(data);
+            final Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                // All the images of the reader are in use
+                Log.e(TAG, "Failed to acquire a picture.", e);
+                mCallback.onTakePictureFailed(e);
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+            final boolean burst = mRepeatingBurst || mBurstRemaining > 0;
+            if (mBurstRemaining > 0) {
+                mBurstRemaining--;
+            }
+            if (image.getPlanes().length == 0) {
+                image.close();
+            } else if (burst && mOpenPictures.get() >= MAX_BURST_PICTURES) {
+                // The app has not caught up with the burst; drop pictures rather than queue them
+                Log.w(TAG, "Dropped a burst picture.");
+                image.close();
+            } else {
+                // The picture is copied into a pooled buffer, so that the image goes back to the
+                // reader right away and no array is allocated once the pool is warm
+                final int width = image.getWidth();
+                final int height = image.getHeight();
+                final Picture picture;
+                try {
+                    final ByteBuffer jpeg = image.getPlanes()[0].getBuffer();
+                    final int length = jpeg.remaining();
+                    final byte[] array = mPictureBufferPool.acquire(length);
+                    jpeg.get(array, 0, length);
+                    picture = new CountedPicture(array, length, mPictureBufferPool,
+                            mOpenPictures);
+                } finally {
+                    image.close();
                 }
+                mCallback.onPictureTaken(normalize(picture, width, height));
+            }
+        }
+
+    };
+    private final ByteArrayPool mPictureBufferPool = new ByteArrayPool(MAX_POOLED_PICTURE_BYTES);
+    /** The number of pictures from {@link #mImageReader} that are still open */
+    private final AtomicInteger mOpenPictures = new AtomicInteger();
+
+    /** The number of pictures of bursts that are still to come. Only used on the camera thread. */
+    private int mBurstRemaining;
+
+    /** Whether pictures are taken repeatedly. Only used on the camera thread. */
+    private boolean mRepeatingBurst;
+
+    private final CameraCaptureSession.CaptureCallback mBurstCaptureCallback
+            = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            // No image is coming for this request
+            if (mBurstRemaining > 0) {
+                mBurstRemaining--;
+            }
+        }
+    };
+    private volatile SizeMap mPreviewSizes = new SizeMap();
+    private SizeMap mPictureSizes = new SizeMap();
+    private SizeMap mFrameSizes = new SizeMap();
+    private final Pools.Pool<ImageFrame> mImageFramePool
+            = new Pools.SynchronizedPool<>(FRAME_BUFFER_COUNT);
+    private final ImageReader.OnImageAvailableListener mOnFrameAvailableListener
+            = new ImageReader.OnImageAvailableListener() {
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            final Image image = reader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            final FrameListener listener = mFrameListener;
+            final ImageFrame frame = listener == null ? null : mImageFramePool.acquire();
+            if (frame == null) {
+                // All the frames are retained by the listener; drop this one.
+                image.close();
+                return;
+            }
+            frame.bind(image);
+            try {
+                listener.onFrame(frame);
+            } finally {
+                frame.close();
+            }
+        }
+
+    };
+    private volatile FrameListener mFrameListener;
+    private ImageReader mFrameReader;
+    private final ImageReader.OnImageAvailableListener mOnZslFrameAvailableListener
+            = new ImageReader.OnImageAvailableListener() {
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            if (mZslRing.size() >= ZSL_RING_SIZE) {
+                // Release the oldest frame so that the new one can be acquired
+                mZslRing.poll().mImage.close();
+            }
+            final Image image = reader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            final long time = mCapabilities.hasRealtimeTimestamps()
+                    ? image.getTimestamp() : SystemClock.elapsedRealtimeNanos();
+            mZslRing.add(new ZslFrame(image, time));
+            if (mZslPendingPress != 0) {
+                final long pressTime = mZslPendingPress;
+                mZslPendingPress = 0;
+                takeZslPicture(pressTime);
             }
         }
 
     };
-    private final SizeMap mPreviewSizes = new SizeMap();
-    private final SizeMap mPictureSizes = new SizeMap();
-    private final Handler mCameraHandler;
-    private CameraDevice mCamera;
+    private ImageReader mZslReader;
+    /** The most recent full resolution frames, oldest first. Only used on the camera thread. */
+    private final ArrayDeque<ZslFrame> mZslRing = new ArrayDeque<>(ZSL_RING_SIZE);
+    /** The time of a shutter press waiting for the first frame, or 0. */
+    private long mZslPendingPress;
+    private volatile CameraDevice mCamera;
     private CameraCaptureSession mCaptureSession;
     private CaptureRequest.Builder mPreviewRequestBuilder;
+    /*
+     * The camera selected by chooseCameraIdByFacing() and what is derived from it. These are
+     * only accessed on the camera thread; the getters read the volatile fields instead.
+     */
     private String mCameraId;
     private CameraCharacteristics mCameraCharacteristics;
+    private volatile CameraCapabilities mCapabilities;
+    private volatile JpegOrientation mJpegOrientation;
     private ImageReader mImageReader;
-    private int mFacing;
-    private AspectRatio mAspectRatio = Constants.DEFAULT_ASPECT_RATIO;
+    private volatile int mFacing;
+    private volatile AspectRatio mAspectRatio = Constants.DEFAULT_ASPECT_RATIO;
     private final CameraDevice.StateCallback mCameraDeviceCallback
             = new CameraDevice.StateCallback() {
 
         @Override
         public void onOpened(@NonNull CameraDevice camera) {
             mCamera = camera;
+            mCallback.onPhase(PhaseTimings.PHASE_OPENED);
             mCallback.onCameraOpened();
             startCaptureSession();
         }
 
         @Override
         public void onClosed(@NonNull CameraDevice camera) {
-            mCamera = null;
+            if (camera == mSwitchedFromCamera) {
+                // Closed by a switch; the new camera may already be open
+                mSwitchedFromCamera = null;
+                return;
+            }
+            if (mCamera == camera) {
+                mCamera = null;
+            }
             mCallback.onCameraClosed();
         }
 
         @Override
         public void onDisconnected(@NonNull CameraDevice camera) {
-            mCamera = null;
+            if (mCamera == camera) {
+                mCamera = null;
+            }
         }
 
         @Override
         public void onError(@NonNull CameraDevice camera, int error) {
             Log.e(TAG, "onError: " + camera.getId() + " (" + error + ")");
-            mCamera = null;
+            if (mCamera == camera) {
+                mCamera = null;
+            }
         }
 
     };
     private boolean mAutoFocus;
     private int mFlash;
-    private int mDisplayOrientation;
+    private volatile int mDisplayOrientation;
     private float mZoom = 1.f;
     private Rect mCropRegion;
+    /** When the ongoing camera switch started, or 0. Only accessed on the camera thread. */
+    private long mSwitchStartTime;
+    /** The camera closed by the ongoing switch, until it is closed. Camera thread only. */
+    private CameraDevice mSwitchedFromCamera;
+    /*
+     * The configuration of the current capture session, including one that is still being
+     * configured. Only accessed on the camera thread.
+     */
+    private Surface mSessionSurface;
+    private Size mSessionPreviewSize;
+    private ImageReader mSessionImageReader;
+    private ImageReader mSessionFrameReader;
+    private ImageReader mSessionZslReader;
+    private Surface mSessionRecorderSurface;
+    /** The video being recorded, set on the camera thread */
+    private volatile VideoRecording mRecording;
+    /** The input surface of {@link #mRecording}. Camera thread only. */
+    private Surface mRecorderSurface;
+    /** The video size of {@link #mRecording}. Camera thread only. */
+    private Size mRecordingSize;
+    /** Whether the first frame of the session is still to be reported. Camera thread only. */
+    private boolean mAwaitingFirstFrame;
     private MeteringRectangle[] mAFRegions = AutoFocusHelper.getZeroWeightRegion();
     private MeteringRectangle[] mAERegions = AutoFocusHelper.getZeroWeightRegion();
     private PictureCaptureCallback mCaptureCallback = new PictureCaptureCallback() {
@@ -140,7 +351,8 @@ class Camera2 extends CameraViewImpl {
                     CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
             setState(STATE_PRECAPTURE);
             try {
-                mCaptureSession.capture(mPreviewRequestBuilder.build(), this, null);
+                mCaptureSession.capture(mPreviewRequestBuilder.build(), this,
+                        getCameraHandler());
                 mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
                         CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
             } catch (CameraAccessException e) {
@@ -153,6 +365,44 @@ class Camera2 extends CameraViewImpl {
             captureStillPicture();
         }
 
+        @Override
+        void onPhaseReached(int phase) {
+            mCallback.onPhase(phase);
+        }
+
+        @Override
+        public void onCaptured() {
+            if (mSessionRecorderSurface != null) {
+                // Video snapshots neither stop the preview nor lock the focus
+                setState(STATE_PREVIEW);
+                return;
+            }
+            if (!getKeepPreviewRunning()) {
+                return;
+            }
+            if (mAutoFocus) {
+                // Release the focus lock; the preview request is still running
+                unlockFocus();
+            } else {
+                setState(STATE_PREVIEW);
+            }
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            super.onCaptureCompleted(session, request, result);
+            if (mAwaitingFirstFrame) {
+                mAwaitingFirstFrame = false;
+                mCallback.onPhase(PhaseTimings.PHASE_FIRST_FRAME);
+            }
+            if (mSwitchStartTime != 0) {
+                final long timeToFirstFrame = SystemClock.elapsedRealtime() - mSwitchStartTime;
+                mSwitchStartTime = 0;
+                mCallback.onCameraSwitched(timeToFirstFrame);
+            }
+        }
+
     };
     private final CameraCaptureSession.StateCallback mSessionCallback
             = new CameraCaptureSession.StateCallback() {
@@ -166,21 +416,44 @@ class Camera2 extends CameraViewImpl {
             updateAutoFocus();
             updateFlash();
             updateZoom();
+            mCallback.onPhase(PhaseTimings.PHASE_SESSION_CONFIGURED);
+            mAwaitingFirstFrame = true;
             mCallback.onCameraConfigured();
 
             try {
                 mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                        mCaptureCallback, null);
+                        mCaptureCallback, getCameraHandler());
             } catch (CameraAccessException e) {
                 Log.e(TAG, "Failed to start camera preview because it couldn't access camera", e);
             } catch (IllegalStateException e) {
                 Log.e(TAG, "Failed to start camera preview.", e);
             }
+            if (mSessionRecorderSurface != null && mRecording != null
+                    && !mRecording.isStarted()) {
+                try {
+                    mRecording.start();
+                    mCallback.onRecordingStarted();
+                } catch (IllegalStateException e) {
+                    finishRecording(e);
+                    prepareImageReader();
+                    startCaptureSession();
+                }
+            }
         }
 
         @Override
         public void onConfigureFailed(@NonNull CameraCaptureSession session) {
             Log.e(TAG, "Failed to configure capture session.");
+            final boolean recording = mSessionRecorderSurface != null;
+            if (recording) {
+                finishRecording(new IllegalStateException("Failed to configure the recording"));
+                prepareImageReader();
+            }
+            closeCaptureSession();
+            if (recording) {
+                // The previous session is gone; restart the preview without the recorder
+                startCaptureSession();
+            }
         }
 
         @Override
@@ -199,7 +472,7 @@ class Camera2 extends CameraViewImpl {
                 if (mCaptureSession != null) {
                     try {
                         mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                                mCaptureCallback, null);
+                                mCaptureCallback, getCameraHandler());
                     } catch (CameraAccessException e) {
                         mAutoFocus = !mAutoFocus; // Revert
                     }
@@ -210,12 +483,19 @@ class Camera2 extends CameraViewImpl {
 
     Camera2(Callback callback, PreviewImpl preview, Context context) {
         super(callback, preview);
-        mCameraHandler = new Handler();
         mCameraManager = (CameraManager) context.getApplicationContext().getSystemService(Context.CAMERA_SERVICE);
+        for (int i = 0; i < FRAME_BUFFER_COUNT; i++) {
+            mImageFramePool.release(new ImageFrame(mImageFramePool));
+        }
         mPreview.setCallback(new PreviewImpl.Callback() {
             @Override
             public void onSurfaceChanged() {
-                startCaptureSession();
+                runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        startCaptureSession();
+                    }
+                });
             }
         });
     }
@@ -231,32 +511,33 @@ class Camera2 extends CameraViewImpl {
             return;
         }
 
-        float saved = mZoom;
+        final float saved = mZoom;
         mZoom = zoom;
-        if (mCameraCharacteristics != null) {
-            if (updateZoom()) {
-                try {
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
-                } catch (CameraAccessException e) {
-                    mZoom = saved; // Revert
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCapabilities != null && updateZoom()) {
+                    try {
+                        mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
+                                mCaptureCallback, getCameraHandler());
+                    } catch (CameraAccessException e) {
+                        mZoom = saved; // Revert
+                    }
                 }
             }
-        }
+        });
     }
 
     @Override
     public float getMaxZoom() {
-        Float maxZoom = mCameraCharacteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
-        if (maxZoom == null) return 1.f;
-        return maxZoom;
+        final CameraCapabilities capabilities = mCapabilities;
+        return capabilities == null ? 1.f : capabilities.getMaxZoom();
     }
 
     private boolean updateZoom() {
-        Float maxZoom = mCameraCharacteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
-        if (maxZoom == null) return false;
+        final float maxZoom = mCapabilities.getMaxZoom();
 
-        Rect m = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        Rect m = mCapabilities.getActiveArray();
         if (m == null) return false;
 
         if (mZoom < 1.f) mZoom = 1.f;
@@ -275,21 +556,58 @@ class Camera2 extends CameraViewImpl {
 
     @Override
     public boolean start() {
-        if (!chooseCameraIdByFacing()) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                // The camera is selected on the camera thread, after a preceding stop() has
+                // closed the previous one
+                if (!selectCamera()) {
+                    return;
+                }
+                prepareImageReader();
+                startOpeningCamera();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Selects the camera facing {@link #mFacing} and collects its information. If that fails,
+     * the callback is told so. This runs on the camera thread.
+     *
+     * @return {@code true} if a camera was selected.
+     */
+    private boolean selectCamera() {
+        try {
+            if (!chooseCameraIdByFacing()) {
+                mCallback.onLegacyCamera();
+                return false;
+            }
+            mCropRegion = AutoFocusHelper.cropRegionForZoom(mCameraCharacteristics, 1);
+            collectCameraInfo();
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to select a camera", e);
             mCallback.onCameraNotAvailable();
             return false;
         }
-
-        mCropRegion = AutoFocusHelper.cropRegionForZoom(mCameraCharacteristics, 1);
-
-        collectCameraInfo();
-        prepareImageReader();
-        startOpeningCamera();
-        return true;
     }
 
     @Override
     public void stop() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                closeCamera();
+            }
+        });
+    }
+
+    /**
+     * Closes the camera device and releases its resources. This runs on the camera thread.
+     */
+    private void closeCamera() {
+        finishRecording(null);
         closeCaptureSession();
 
         if (isCameraOpened()) {
@@ -300,8 +618,15 @@ class Camera2 extends CameraViewImpl {
             mImageReader.close();
             mImageReader = null;
         }
+        if (mFrameReader != null) {
+            mFrameReader.close();
+            mFrameReader = null;
+        }
+        closeZslReader();
+        mPictureBufferPool.clear();
+        mSwitchStartTime = 0;
 
-        mCameraHandler.removeCallbacks(mReturnToContinuousAFRunnable);
+        getCameraHandler().removeCallbacks(mReturnToContinuousAFRunnable);
     }
 
     @Override
@@ -320,10 +645,39 @@ class Camera2 extends CameraViewImpl {
             return;
         }
         mFacing = facing;
-        if (isCameraOpened()) {
-            stop();
-            start();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened()) {
+                    switchCamera();
+                }
+            }
+        });
+    }
+
+    /**
+     * <p>Switches to the camera facing {@link #mFacing} without a full stop and start.</p>
+     * <p>The preview surface and the image readers are kept if their sizes still match, the
+     * capabilities of the other camera come from the cache, and it is opened right away without
+     * waiting for the current one to be closed. The time until the first preview frame of the new
+     * camera is reported to {@link Callback#onCameraSwitched(long)}.</p>
+     */
+    private void switchCamera() {
+        mSwitchStartTime = SystemClock.elapsedRealtime();
+        // The recording cannot go on with another camera
+        finishRecording(null);
+        closeCaptureSession();
+        mSwitchedFromCamera = mCamera;
+        mCamera.close();
+        mCamera = null;
+        getCameraHandler().removeCallbacks(mReturnToContinuousAFRunnable);
+        if (!selectCamera()) {
+            // No switch time is reported if camera1 takes over or no camera is available
+            mSwitchStartTime = 0;
+            return;
         }
+        prepareImageReader();
+        startOpeningCamera();
     }
 
     @Override
@@ -348,8 +702,15 @@ class Camera2 extends CameraViewImpl {
         }
 
         mAspectRatio = ratio;
-        prepareImageReader();
-        closeCaptureSession();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                // The readers are kept and the session is only recreated if the new ratio
+                // actually leads to different sizes.
+                prepareImageReader();
+                startCaptureSession();
+            }
+        });
         return true;
     }
 
@@ -358,6 +719,14 @@ class Camera2 extends CameraViewImpl {
             mCaptureSession.close();
             mCaptureSession = null;
         }
+        mSessionSurface = null;
+        mSessionPreviewSize = null;
+        mBurstRemaining = 0;
+        mRepeatingBurst = false;
+        mSessionImageReader = null;
+        mSessionFrameReader = null;
+        mSessionZslReader = null;
+        mSessionRecorderSurface = null;
     }
 
     @Override
@@ -376,17 +745,22 @@ class Camera2 extends CameraViewImpl {
             return;
         }
         mAutoFocus = autoFocus;
-        if (mPreviewRequestBuilder != null) {
-            updateAutoFocus();
-            if (mCaptureSession != null) {
-                try {
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
-                } catch (CameraAccessException e) {
-                    mAutoFocus = !mAutoFocus; // Revert
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mPreviewRequestBuilder != null) {
+                    updateAutoFocus();
+                    if (mCaptureSession != null) {
+                        try {
+                            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
+                                    mCaptureCallback, getCameraHandler());
+                        } catch (CameraAccessException e) {
+                            mAutoFocus = !mAutoFocus; // Revert
+                        }
+                    }
                 }
             }
-        }
+        });
     }
 
     @Override
@@ -399,28 +773,49 @@ class Camera2 extends CameraViewImpl {
         if (mFlash == flash) {
             return;
         }
-        int saved = mFlash;
+        final int saved = mFlash;
         mFlash = flash;
-        if (mPreviewRequestBuilder != null) {
-            updateFlash();
-            if (mCaptureSession != null) {
-                try {
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
-                } catch (CameraAccessException e) {
-                    mFlash = saved; // Revert
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mPreviewRequestBuilder != null) {
+                    updateFlash();
+                    if (mCaptureSession != null) {
+                        try {
+                            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
+                                    mCaptureCallback, getCameraHandler());
+                        } catch (CameraAccessException e) {
+                            mFlash = saved; // Revert
+                        }
+                    }
                 }
             }
-        }
+        });
     }
 
     @Override
     public void takePicture() {
-        if (mAutoFocus) {
-            lockFocus();
-        } else {
-            captureStillPicture();
-        }
+        final long pressTime = SystemClock.elapsedRealtimeNanos();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mZslReader != null && mZslReader == mSessionZslReader) {
+                        takeZslPicture(pressTime);
+                    } else if (mSessionRecorderSurface != null) {
+                        captureVideoSnapshot();
+                    } else if (mAutoFocus) {
+                        lockFocus();
+                    } else {
+                        captureStillPicture();
+                    }
+                } catch (RuntimeException e) {
+                    // This no longer runs inside CameraView.takePicture(); report failures here
+                    Log.e(TAG, "Failed to take a picture.", e);
+                    mCallback.onTakePictureFailed(e);
+                }
+            }
+        });
     }
 
     @Override
@@ -446,17 +841,32 @@ class Camera2 extends CameraViewImpl {
         if (mFacing == Constants.FACING_FRONT) {
             points[0] = 1 - points[0];
         }
+        final float focusX = points[0];
+        final float focusY = points[1];
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                focusAt(focusX, focusY);
+            }
+        });
+    }
+
+    /**
+     * Triggers auto-focus at the specified normalized coordinates. This runs on the camera thread.
+     */
+    private void focusAt(float x, float y) {
         if (mPreviewRequestBuilder != null) {
-            updateManualFocus(points[0], points[1]);
+            updateManualFocus(x, y);
             if (mCaptureSession != null) {
                 try {
                     mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                             CaptureRequest.CONTROL_AF_TRIGGER_START);
-                    mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+                    mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
+                            getCameraHandler());
                     mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                             CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
                     mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
+                            mCaptureCallback, getCameraHandler());
                 } catch (CameraAccessException e) {
                     Log.e(TAG, "Failed to set manual focus.", e);
                 }
@@ -466,23 +876,13 @@ class Camera2 extends CameraViewImpl {
     }
 
     private boolean isAutoFocusSupported() {
-        if (!isCameraOpened()) {
-            return false;
-        }
-        Integer maxAfRegions = mCameraCharacteristics.get(
-                CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
         // Auto-Focus is supported if the device supports one or more AF regions
-        return maxAfRegions != null && maxAfRegions > 0;
+        return isCameraOpened() && mCapabilities.isFocusAreaSupported();
     }
 
     private boolean isAutoExposureSupported() {
-        if (!isCameraOpened()) {
-            return false;
-        }
-        Integer maxAeRegions = mCameraCharacteristics.get(
-                CameraCharacteristics.CONTROL_MAX_REGIONS_AE);
         // Auto-Exposure is supported if the device supports one or more AE regions
-        return maxAeRegions != null && maxAeRegions > 0;
+        return isCameraOpened() && mCapabilities.isMeteringAreaSupported();
     }
 
     /**
@@ -493,13 +893,13 @@ class Camera2 extends CameraViewImpl {
     private boolean chooseCameraIdByFacing() {
         try {
             int internalFacing = INTERNAL_FACINGS.get(mFacing);
-            final String[] ids = mCameraManager.getCameraIdList();
+            final String[] ids = getCameraIdList();
             if (ids.length == 0) { // No camera
                 Log.e(TAG, "No camera devices present.");
                 return false;
             }
             for (String id : ids) {
-                CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(id);
+                CameraCharacteristics characteristics = getCameraCharacteristics(id);
                 Integer level = characteristics.get(
                         CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
                 if (level == null ||
@@ -518,7 +918,7 @@ class Camera2 extends CameraViewImpl {
             }
             // Not found
             mCameraId = ids[0];
-            mCameraCharacteristics = mCameraManager.getCameraCharacteristics(mCameraId);
+            mCameraCharacteristics = getCameraCharacteristics(mCameraId);
             Integer level = mCameraCharacteristics.get(
                     CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
             if (level == null ||
@@ -545,58 +945,193 @@ class Camera2 extends CameraViewImpl {
     }
 
     /**
-     * <p>Collects some information from {@link #mCameraCharacteristics}.</p>
-     * <p>This rewrites {@link #mPreviewSizes}, {@link #mPictureSizes}, and optionally,
-     * {@link #mAspectRatio}.</p>
+     * @return The IDs of the camera devices. They are only queried once per process.
+     */
+    private String[] getCameraIdList() throws CameraAccessException {
+        synchronized (sCharacteristics) {
+            if (sCameraIds == null) {
+                final String[] ids = mCameraManager.getCameraIdList();
+                if (ids.length == 0) {
+                    // Do not remember that there is no camera; it may be a transient state.
+                    return ids;
+                }
+                sCameraIds = ids;
+            }
+            return sCameraIds;
+        }
+    }
+
+    /**
+     * @return The characteristics of the camera device. They are only queried once per process.
+     */
+    private CameraCharacteristics getCameraCharacteristics(String id)
+            throws CameraAccessException {
+        synchronized (sCharacteristics) {
+            CameraCharacteristics characteristics = sCharacteristics.get(id);
+            if (characteristics == null) {
+                characteristics = mCameraManager.getCameraCharacteristics(id);
+                sCharacteristics.put(id, characteristics);
+            }
+            return characteristics;
+        }
+    }
+
+    /**
+     * <p>Collects some information from {@link #mCameraCharacteristics}, or takes it from the
+     * {@link CameraCapabilities} cache if it was already collected for this camera.</p>
+     * <p>This rewrites {@link #mCapabilities}, {@link #mPreviewSizes}, {@link #mPictureSizes},
+     * {@link #mFrameSizes}, and optionally, {@link #mAspectRatio}.</p>
      */
     private void collectCameraInfo() {
+        // The sizes depend on the preview output class and on collectPictureSizes()
+        final String key = getClass().getSimpleName() + "/" + mCameraId + "/"
+                + mPreview.getOutputClass().getName();
+        CameraCapabilities capabilities = CameraCapabilities.get(key);
+        if (capabilities == null) {
+            capabilities = CameraCapabilities.put(key, buildCapabilities());
+        }
+        final SizeMap previewSizes = capabilities.getPreviewSizes();
+        if (!previewSizes.ratios().contains(mAspectRatio)) {
+            mAspectRatio = previewSizes.ratios().iterator().next();
+        }
+        mCapabilities = capabilities;
+        mJpegOrientation = new JpegOrientation(key);
+        mPictureSizes = capabilities.getPictureSizes();
+        mFrameSizes = capabilities.getFrameSizes();
+        mPreviewSizes = previewSizes;
+    }
+
+    private CameraCapabilities buildCapabilities() {
         StreamConfigurationMap map = mCameraCharacteristics.get(
                 CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
         if (map == null) {
             throw new IllegalStateException("Failed to get configuration map: " + mCameraId);
         }
-        mPreviewSizes.clear();
-        for (android.util.Size size : map.getOutputSizes(mPreview.getOutputClass())) {
+        SizeMap previewSizes = new SizeMap();
+        final Class<?> outputClass = mPreview.getOutputClass();
+        for (android.util.Size size : map.getOutputSizes(outputClass)) {
             int width = size.getWidth();
             int height = size.getHeight();
             if (width <= MAX_PREVIEW_WIDTH && height <= MAX_PREVIEW_HEIGHT) {
-                mPreviewSizes.add(new Size(width, height));
+                final Size previewSize = new Size(width, height);
+                previewSizes.add(previewSize);
+                previewSizes.setMinFrameDuration(previewSize,
+                        map.getOutputMinFrameDuration(outputClass, size));
             }
         }
-        mPictureSizes.clear();
-        collectPictureSizes(mPictureSizes, map);
-        for (AspectRatio ratio : mPreviewSizes.ratios()) {
-            if (!mPictureSizes.ratios().contains(ratio)) {
-                mPreviewSizes.remove(ratio);
+        SizeMap pictureSizes = new SizeMap();
+        collectPictureSizes(pictureSizes, map);
+        SizeMap videoSizes = new SizeMap();
+        for (android.util.Size size : map.getOutputSizes(MediaRecorder.class)) {
+            videoSizes.add(new Size(size.getWidth(), size.getHeight()));
+        }
+        SizeMap frameSizes = new SizeMap();
+        SizeMap stillFrameSizes = new SizeMap();
+        for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            int width = size.getWidth();
+            int height = size.getHeight();
+            final Size frameSize = new Size(width, height);
+            final long duration = map.getOutputMinFrameDuration(ImageFormat.YUV_420_888, size);
+            stillFrameSizes.add(frameSize);
+            stillFrameSizes.setMinFrameDuration(frameSize, duration);
+            if (width <= MAX_PREVIEW_WIDTH && height <= MAX_PREVIEW_HEIGHT) {
+                frameSizes.add(frameSize);
+                frameSizes.setMinFrameDuration(frameSize, duration);
             }
         }
 
-        if (!mPreviewSizes.ratios().contains(mAspectRatio)) {
-            mAspectRatio = mPreviewSizes.ratios().iterator().next();
-        }
+        Integer sensorOrientation = mCameraCharacteristics.get(
+                CameraCharacteristics.SENSOR_ORIENTATION);
+        Float maxZoom = mCameraCharacteristics.get(
+                CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        int[] afModes = mCameraCharacteristics.get(
+                CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        Boolean flash = mCameraCharacteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+        Integer maxAfRegions = mCameraCharacteristics.get(
+                CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
+        Integer maxAeRegions = mCameraCharacteristics.get(
+                CameraCharacteristics.CONTROL_MAX_REGIONS_AE);
+        return new CameraCapabilities.Builder()
+                .setSizes(previewSizes, pictureSizes)
+                .setFrameSizes(frameSizes)
+                .setStillFrameSizes(stillFrameSizes)
+                .setVideoSizes(videoSizes)
+                .setSensorOrientation(sensorOrientation == null ? 0 : sensorOrientation)
+                .setActiveArray(mCameraCharacteristics.get(
+                        CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE))
+                .setMaxZoom(maxZoom == null ? 1.f : maxZoom)
+                .setAutoFocusSupported(afModes != null && (afModes.length > 1
+                        || (afModes.length == 1
+                        && afModes[0] != CameraCharacteristics.CONTROL_AF_MODE_OFF)))
+                .setFlashSupported(flash != null && flash)
+                .setFocusAreaSupported(maxAfRegions != null && maxAfRegions > 0)
+                .setMeteringAreaSupported(maxAeRegions != null && maxAeRegions > 0)
+                .setRealtimeTimestamps(hasRealtimeTimestamps(mCameraCharacteristics))
+                .build();
+    }
+
+    /**
+     * @return {@code true} if the timestamps of the camera use the same time base as
+     * {@link SystemClock#elapsedRealtimeNanos()}. This is unknown before API level 23.
+     */
+    protected boolean hasRealtimeTimestamps(CameraCharacteristics characteristics) {
+        return false;
     }
 
     protected void collectPictureSizes(SizeMap sizes, StreamConfigurationMap map) {
         for (android.util.Size size : map.getOutputSizes(ImageFormat.JPEG)) {
-            mPictureSizes.add(new Size(size.getWidth(), size.getHeight()));
+            sizes.add(new Size(size.getWidth(), size.getHeight()));
         }
     }
 
     private void prepareImageReader() {
-        if (mImageReader != null) {
-            mImageReader.close();
+        Size selectedSize;
+        if (mRecorderSurface != null) {
+            selectedSize = chooseVideoSnapshotSize();
+        } else {
+            selectedSize = SizeSelector.select(mPictureSizes, mAspectRatio,
+                    getSizePolicy().pictureStrategy());
+            if (selectedSize != null && mCallback != null) {
+                selectedSize = mCallback.onChoosePictureSize(mPictureSizes, selectedSize,
+                        mAspectRatio);
+            }
         }
-        SortedSet<Size> sizes = mPictureSizes.sizes(mAspectRatio);
-        if (null == sizes) {
+        if (null == selectedSize) {
+            if (mImageReader != null) {
+                mImageReader.close();
+                mImageReader = null;
+            }
             return;
         }
-        Size selectedSize = sizes.last();
-        if (mCallback != null) {
-            selectedSize = mCallback.onChoosePictureSize(mPictureSizes, mAspectRatio);
+        if (mImageReader != null) {
+            if (mImageReader.getWidth() == selectedSize.getWidth()
+                    && mImageReader.getHeight() == selectedSize.getHeight()) {
+                // The same size is used by the other camera; keep the reader and its buffers
+                return;
+            }
+            mImageReader.close();
         }
         mImageReader = ImageReader.newInstance(selectedSize.getWidth(), selectedSize.getHeight(),
-                ImageFormat.JPEG, /* maxImages */ 2);
-        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, null);
+                ImageFormat.JPEG, MAX_PICTURE_IMAGES);
+        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, getCameraHandler());
+    }
+
+    /**
+     * Chooses the size of the pictures taken while recording. Next to a preview and a recording,
+     * devices below {@code LEVEL_3} only guarantee a JPEG stream of at most the recording size.
+     *
+     * @return The largest picture size that fits in the recording, or {@code null} if there is
+     * none; pictures cannot be taken during the recording then.
+     */
+    private Size chooseVideoSnapshotSize() {
+        final int width = mRecordingSize.getWidth();
+        final int height = mRecordingSize.getHeight();
+        final Size size = SizeSelector.select(mPictureSizes, mAspectRatio,
+                SizeSelector.largestWithin(width, height));
+        if (size == null || size.getWidth() > width || size.getHeight() > height) {
+            return null;
+        }
+        return size;
     }
 
     /**
@@ -609,7 +1144,8 @@ class Camera2 extends CameraViewImpl {
         }
 
         try {
-            mCameraManager.openCamera(mCameraId, mCameraDeviceCallback, null);
+            mCameraManager.openCamera(mCameraId, mCameraDeviceCallback,
+                    getCameraHandler());
         } catch (SecurityException | CameraAccessException e) {
             Log.e(TAG, "Failed to open camera: " + mCameraId, e);
             if (mCallback != null) {
@@ -620,31 +1156,74 @@ class Camera2 extends CameraViewImpl {
 
     /**
      * <p>Starts a capture session for camera preview.</p>
+     * <p>Nothing is done if the current session already has the same outputs, so that the
+     * preview is not interrupted when the surface only reports a change.</p>
      * <p>This rewrites {@link #mPreviewRequestBuilder}.</p>
      * <p>The result will be continuously processed in {@link #mSessionCallback}.</p>
      */
     private void startCaptureSession() {
-        if (!isCameraOpened() || !mPreview.isReady() || mImageReader == null) {
+        if (!isCameraOpened() || !mPreview.isReady()
+                || (mImageReader == null && mRecorderSurface == null)) {
             return;
         }
         Size previewSize = chooseOptimalSize();
         if (mCallback != null) {
-            previewSize = mCallback.onChoosePreviewSize(mPictureSizes, previewSize, mAspectRatio);
+            previewSize = mCallback.onChoosePreviewSize(mPreviewSizes, previewSize, mAspectRatio);
         }
         mPreview.setBufferSize(previewSize.getWidth(), previewSize.getHeight());
+        prepareFrameReader(previewSize);
+        prepareZslReader();
         Surface surface = mPreview.getSurface();
+        // While recording, the recorder takes the place of the frame and ZSL readers. Devices
+        // below LEVEL_3 only guarantee a preview, a recording and a JPEG stream of at most the
+        // recording size, so the JPEG reader is limited to that size or left out
+        final Surface recorderSurface = mRecorderSurface;
+        final ImageReader frameReader = recorderSurface == null ? mFrameReader : null;
+        final ImageReader zslReader = recorderSurface == null ? mZslReader : null;
+        if (surface == mSessionSurface && previewSize.equals(mSessionPreviewSize)
+                && mImageReader == mSessionImageReader && frameReader == mSessionFrameReader
+                && zslReader == mSessionZslReader && recorderSurface == mSessionRecorderSurface) {
+            return;
+        }
+        // A session cannot be reconfigured in place, so it is replaced
+        closeCaptureSession();
+        mSessionSurface = surface;
+        mSessionPreviewSize = previewSize;
+        mSessionImageReader = mImageReader;
+        mSessionFrameReader = frameReader;
+        mSessionZslReader = zslReader;
+        mSessionRecorderSurface = recorderSurface;
         try {
-            mPreviewRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            List<Surface> outputs = new ArrayList<>(3);
+            outputs.add(surface);
+            mPreviewRequestBuilder = mCamera.createCaptureRequest(recorderSurface == null
+                    ? CameraDevice.TEMPLATE_PREVIEW : CameraDevice.TEMPLATE_RECORD);
             mPreviewRequestBuilder.addTarget(surface);
-            mCamera.createCaptureSession(Arrays.asList(surface, mImageReader.getSurface()),
-                    mSessionCallback, null);
+            if (zslReader != null) {
+                // Pictures are taken from these frames; the JPEG reader would be a fourth stream
+                outputs.add(zslReader.getSurface());
+                mPreviewRequestBuilder.addTarget(zslReader.getSurface());
+            } else if (mImageReader != null) {
+                outputs.add(mImageReader.getSurface());
+            }
+            if (frameReader != null) {
+                outputs.add(frameReader.getSurface());
+                mPreviewRequestBuilder.addTarget(frameReader.getSurface());
+            }
+            if (recorderSurface != null) {
+                outputs.add(recorderSurface);
+                mPreviewRequestBuilder.addTarget(recorderSurface);
+            }
+            mCamera.createCaptureSession(outputs, mSessionCallback, getCameraHandler());
         } catch (CameraAccessException e) {
             Log.e(TAG, "Failed to start camera session");
+            mSessionSurface = null;
             if (mCallback != null) {
                 mCallback.onCameraNotAvailable();
             }
         } catch (UnsupportedOperationException e) {
             Log.e(TAG, "Camera not support this capture session");
+            mSessionSurface = null;
             if (mCallback != null) {
                 mCallback.onCameraNotAvailable();
             }
@@ -652,8 +1231,79 @@ class Camera2 extends CameraViewImpl {
     }
 
     /**
-     * Chooses the optimal preview size based on {@link #mPreviewSizes} and the surface size.
-     *
+     * <p>Prepares {@link #mFrameReader} for the specified preview size, or closes it if no one is
+     * listening to preview frames.</p>
+     */
+    private void prepareFrameReader(Size previewSize) {
+        if (mFrameListener == null) {
+            if (mFrameReader != null) {
+                mFrameReader.close();
+                mFrameReader = null;
+            }
+            return;
+        }
+        final Size frameSize = chooseFrameSize(previewSize);
+        if (mFrameReader != null) {
+            if (mFrameReader.getWidth() == frameSize.getWidth()
+                    && mFrameReader.getHeight() == frameSize.getHeight()) {
+                return;
+            }
+            mFrameReader.close();
+        }
+        // One more image than the frames so that an image can always be acquired and dropped
+        mFrameReader = ImageReader.newInstance(frameSize.getWidth(), frameSize.getHeight(),
+                ImageFormat.YUV_420_888, FRAME_BUFFER_COUNT + 1);
+        mFrameReader.setOnImageAvailableListener(mOnFrameAvailableListener, getCameraHandler());
+    }
+
+    /**
+     * Prepares {@link #mZslReader} for full resolution frames, or closes it if zero shutter lag is
+     * off or the camera cannot provide them.
+     */
+    private void prepareZslReader() {
+        final Size size = !getZeroShutterLag() ? null
+                : SizeSelector.select(mCapabilities.getStillFrameSizes(), mAspectRatio,
+                        SizeSelector.largestAtFrameRate(ZSL_FRAME_RATE));
+        if (mZslReader != null) {
+            if (size != null && mZslReader.getWidth() == size.getWidth()
+                    && mZslReader.getHeight() == size.getHeight()) {
+                return;
+            }
+            closeZslReader();
+        }
+        if (size == null) {
+            return;
+        }
+        mZslReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                ImageFormat.YUV_420_888, ZSL_RING_SIZE);
+        mZslReader.setOnImageAvailableListener(mOnZslFrameAvailableListener, getCameraHandler());
+    }
+
+    private void closeZslReader() {
+        ZslFrame frame;
+        while ((frame = mZslRing.poll()) != null) {
+            frame.mImage.close();
+        }
+        mZslPendingPress = 0;
+        if (mZslReader != null) {
+            mZslReader.close();
+            mZslReader = null;
+        }
+    }
+
+    /**
+     * Chooses the size for preview frames. Unless the size policy says otherwise, this is the
+     * largest size that does not exceed the preview size.
+     */
+    private Size chooseFrameSize(Size previewSize) {
+        final Size result = SizeSelector.select(mFrameSizes, mAspectRatio,
+                getSizePolicy().frameStrategy(previewSize));
+        return result == null ? previewSize : result;
+    }
+
+    /**
+     * Chooses the optimal preview size based on {@link #mPreviewSizes} and the surface size.
+     *
      * @return The picked size for camera preview.
      */
     private Size chooseOptimalSize() {
@@ -667,16 +1317,8 @@ class Camera2 extends CameraViewImpl {
             surfaceLonger = surfaceWidth;
             surfaceShorter = surfaceHeight;
         }
-        SortedSet<Size> candidates = mPreviewSizes.sizes(mAspectRatio);
-
-        // Pick the smallest of those big enough
-        for (Size size : candidates) {
-            if (size.getWidth() >= surfaceLonger && size.getHeight() >= surfaceShorter) {
-                return size;
-            }
-        }
-        // If no size is big enough, pick the largest one.
-        return candidates.last();
+        return SizeSelector.select(mPreviewSizes, mAspectRatio,
+                getSizePolicy().previewStrategy(surfaceLonger, surfaceShorter));
     }
 
     /**
@@ -684,17 +1326,17 @@ class Camera2 extends CameraViewImpl {
      */
     private void updateAutoFocus() {
         if (mAutoFocus) {
-            int[] modes = mCameraCharacteristics.get(
-                    CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
             // Auto focus is not supported
-            if (modes == null || modes.length == 0 ||
-                    (modes.length == 1 && modes[0] == CameraCharacteristics.CONTROL_AF_MODE_OFF)) {
+            if (!mCapabilities.isAutoFocusSupported()) {
                 mAutoFocus = false;
                 mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
                         CaptureRequest.CONTROL_AF_MODE_OFF);
             } else {
+                // Continuous video focus moves slower, so that it does not show in the video
                 mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                        mSessionRecorderSurface != null
+                                ? CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO
+                                : CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
             }
         } else {
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
@@ -717,9 +1359,7 @@ class Camera2 extends CameraViewImpl {
      * Updates the internal state of manual focus.
      */
     private void updateManualFocus(float x, float y) {
-        @SuppressWarnings("ConstantConditions")
-        int sensorOrientation = mCameraCharacteristics.get(
-                CameraCharacteristics.SENSOR_ORIENTATION);
+        int sensorOrientation = mCapabilities.getSensorOrientation();
         if (isAutoFocusSupported()) {
             mAFRegions = AutoFocusHelper.afRegionsForNormalizedCoord(x, y, mCropRegion,
                     sensorOrientation);
@@ -784,7 +1424,8 @@ class Camera2 extends CameraViewImpl {
                 CaptureRequest.CONTROL_AF_TRIGGER_START);
         try {
             mCaptureCallback.setState(PictureCaptureCallback.STATE_LOCKING);
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
+                    getCameraHandler());
         } catch (CameraAccessException e) {
             Log.e(TAG, "Failed to lock focus.", e);
         }
@@ -795,81 +1436,486 @@ class Camera2 extends CameraViewImpl {
      */
     private void captureStillPicture() {
         try {
-            CaptureRequest.Builder captureRequestBuilder = mCamera.createCaptureRequest(
-                    CameraDevice.TEMPLATE_STILL_CAPTURE);
-            captureRequestBuilder.addTarget(mImageReader.getSurface());
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                    mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE));
-            switch (mFlash) {
-                case Constants.FLASH_OFF:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                            CaptureRequest.CONTROL_AE_MODE_ON);
-                    captureRequestBuilder.set(CaptureRequest.FLASH_MODE,
-                            CaptureRequest.FLASH_MODE_OFF);
-                    break;
-                case Constants.FLASH_ON:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                            CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
-                    break;
-                case Constants.FLASH_TORCH:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                            CaptureRequest.CONTROL_AE_MODE_ON);
-                    captureRequestBuilder.set(CaptureRequest.FLASH_MODE,
-                            CaptureRequest.FLASH_MODE_TORCH);
-                    break;
-                case Constants.FLASH_AUTO:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                            CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-                    break;
-                case Constants.FLASH_RED_EYE:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                            CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-                    break;
+            CaptureRequest.Builder captureRequestBuilder = createStillCaptureRequest();
+            captureRequestBuilder.setTag(PictureCaptureCallback.STILL_CAPTURE_TAG);
+            if (mCaptureSession != null) {
+                if (getKeepPreviewRunning()) {
+                    // Capture alongside the repeating preview request, and render the still
+                    // frame to the preview as well so that it does not skip a frame
+                    captureRequestBuilder.addTarget(mSessionSurface);
+                } else {
+                    // Stop preview and capture a still picture.
+                    mCaptureSession.stopRepeating();
+                }
+                mCaptureCallback.setState(PictureCaptureCallback.STATE_CAPTURING);
+                mCaptureSession.capture(captureRequestBuilder.build(), mCaptureCallback,
+                        getCameraHandler());
             }
+            getCameraHandler().removeCallbacks(mReturnToContinuousAFRunnable);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Cannot capture a still picture.", e);
+        }
+    }
 
-            Float maxZoom = mCameraCharacteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
-            Rect m = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
-            if (m != null && maxZoom != null) {
-                if (mZoom < 1.f) mZoom = 1.f;
-                if (mZoom > maxZoom) mZoom = maxZoom;
+    /**
+     * Captures a still picture while a video is being recorded. The capture is submitted
+     * alongside the repeating request and renders to the recorder as well, so that the video
+     * keeps all of its frames.
+     */
+    private void captureVideoSnapshot() {
+        if (mCaptureSession == null) {
+            return;
+        }
+        try {
+            CaptureRequest.Builder builder = createStillCaptureRequest(
+                    CameraDevice.TEMPLATE_VIDEO_SNAPSHOT);
+            builder.setTag(PictureCaptureCallback.STILL_CAPTURE_TAG);
+            builder.addTarget(mSessionSurface);
+            builder.addTarget(mSessionRecorderSurface);
+            if (mFlash != Constants.FLASH_TORCH) {
+                // A flash would show in the video
+                builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+                builder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+            }
+            mCaptureCallback.setState(PictureCaptureCallback.STATE_CAPTURING);
+            mCaptureSession.capture(builder.build(), mCaptureCallback, getCameraHandler());
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Cannot capture a video snapshot.", e);
+        }
+    }
 
-                int cropW = (m.width() - (int) ((float) m.width() / mZoom)) / 2;
-                int cropH = (m.height() - (int) ((float) m.height() / mZoom)) / 2;
+    /**
+     * Creates a request for a still picture with the current flash, zoom and orientation.
+     */
+    private CaptureRequest.Builder createStillCaptureRequest() throws CameraAccessException {
+        return createStillCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+    }
 
-                Rect zoomRect = new Rect(cropW, cropH, m.width() - cropW, m.height() - cropH);
-                captureRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, zoomRect);
+    /**
+     * Creates a request for a still picture from the template with the current flash, zoom and
+     * orientation.
+     */
+    private CaptureRequest.Builder createStillCaptureRequest(int template)
+            throws CameraAccessException {
+        if (mImageReader == null) {
+            throw new IllegalStateException(
+                    "No picture size fits in the recording; pictures cannot be taken");
+        }
+        CaptureRequest.Builder captureRequestBuilder = mCamera.createCaptureRequest(template);
+        captureRequestBuilder.addTarget(mImageReader.getSurface());
+        captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
+                mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE));
+        switch (mFlash) {
+            case Constants.FLASH_OFF:
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON);
+                captureRequestBuilder.set(CaptureRequest.FLASH_MODE,
+                        CaptureRequest.FLASH_MODE_OFF);
+                break;
+            case Constants.FLASH_ON:
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
+                break;
+            case Constants.FLASH_TORCH:
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON);
+                captureRequestBuilder.set(CaptureRequest.FLASH_MODE,
+                        CaptureRequest.FLASH_MODE_TORCH);
+                break;
+            case Constants.FLASH_AUTO:
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                break;
+            case Constants.FLASH_RED_EYE:
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                break;
+        }
+
+        float maxZoom = mCapabilities.getMaxZoom();
+        Rect m = mCapabilities.getActiveArray();
+        if (m != null) {
+            if (mZoom < 1.f) mZoom = 1.f;
+            if (mZoom > maxZoom) mZoom = maxZoom;
+
+            int cropW = (m.width() - (int) ((float) m.width() / mZoom)) / 2;
+            int cropH = (m.height() - (int) ((float) m.height() / mZoom)) / 2;
+
+            Rect zoomRect = new Rect(cropW, cropH, m.width() - cropW, m.height() - cropH);
+            captureRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, zoomRect);
+        }
+
+        captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, getJpegOrientation());
+        return captureRequestBuilder;
+    }
+
+    /**
+     * @return The clockwise rotation of pictures needed to display them upright, in degrees.
+     */
+    private int getJpegOrientation() {
+        int sensorOrientation = mCapabilities.getSensorOrientation();
+        return (sensorOrientation +
+                mDisplayOrientation * (mFacing == Constants.FACING_FRONT ? 1 : -1) +
+                360) % 360;
+    }
+
+    /**
+     * Fixes the orientation tag of a picture from the JPEG reader if needed. Devices differ in
+     * whether {@link CaptureRequest#JPEG_ORIENTATION} rotates the pixels or only sets the tag.
+     */
+    private Picture normalize(Picture picture, int width, int height) {
+        return mJpegOrientation.normalize(picture, getJpegOrientation(), width, height);
+    }
+
+    /**
+     * Takes a picture from the recent full resolution frame closest to the shutter press. If no
+     * frame has arrived yet, the next one is taken.
+     *
+     * @param pressTime The time of the shutter press, from
+     *                  {@link SystemClock#elapsedRealtimeNanos()}.
+     */
+    private void takeZslPicture(long pressTime) {
+        ZslFrame closest = null;
+        for (ZslFrame frame : mZslRing) {
+            if (closest == null
+                    || Math.abs(frame.mTime - pressTime) < Math.abs(closest.mTime - pressTime)) {
+                closest = frame;
+            }
+        }
+        if (closest == null) {
+            mZslPendingPress = pressTime;
+            return;
+        }
+        mZslRing.remove(closest);
+        final int width = closest.mImage.getWidth();
+        final int height = closest.mImage.getHeight();
+        final byte[] nv21;
+        try {
+            // Copy the frame right away, so that the reader can reuse it
+            nv21 = toNv21(closest.mImage, mPictureBufferPool);
+        } finally {
+            closest.mImage.close();
+        }
+        final int orientation = Exif.orientationFromDegrees(getJpegOrientation());
+        getZslEncoder().execute(new Runnable() {
+            @Override
+            public void run() {
+                final PooledOutputStream jpeg = new PooledOutputStream(mPictureBufferPool,
+                        (int) ((long) width * height * ZSL_JPEG_BITS_PER_PIXEL / 8));
+                final Picture picture;
+                try {
+                    final OutputStream out = Exif.withOrientation(jpeg, orientation);
+                    new YuvImage(nv21, ImageFormat.NV21, width, height, null)
+                            .compressToJpeg(new Rect(0, 0, width, height), ZSL_JPEG_QUALITY, out);
+                    out.flush();
+                    picture = jpeg.toPicture();
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Failed to encode a picture.", e);
+                    jpeg.close();
+                    mCallback.onTakePictureFailed(e);
+                    return;
+                } finally {
+                    mPictureBufferPool.release(nv21);
+                }
+                mCallback.onPictureTaken(picture);
             }
+        });
+    }
 
-            // Calculate JPEG orientation.
-            @SuppressWarnings("ConstantConditions")
-            int sensorOrientation = mCameraCharacteristics.get(
-                    CameraCharacteristics.SENSOR_ORIENTATION);
-            captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION,
-                    (sensorOrientation +
-                            mDisplayOrientation * (mFacing == Constants.FACING_FRONT ? 1 : -1) +
-                            360) % 360);
-            // Stop preview and capture a still picture.
-            if (mCaptureSession != null) {
-                mCaptureSession.stopRepeating();
-                mCaptureSession.capture(captureRequestBuilder.build(),
-                        new CameraCaptureSession.CaptureCallback() {
-                            @Override
-                            public void onCaptureCompleted(@NonNull CameraCaptureSession session,
-                                                           @NonNull CaptureRequest request,
-                                                           @NonNull TotalCaptureResult result) {
-//                                unlockFocus();
-                            }
-                        }, null);
-            }
-            mCameraHandler.removeCallbacks(mReturnToContinuousAFRunnable);
-        } catch (CameraAccessException e) {
-            Log.e(TAG, "Cannot capture a still picture.", e);
+    private static synchronized ExecutorService getZslEncoder() {
+        if (sZslEncoder == null) {
+            sZslEncoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    return new Thread(r, "ZslEncoder");
+                }
+            });
+        }
+        return sZslEncoder;
+    }
+
+    /**
+     * Copies a {@link ImageFormat#YUV_420_888} image into an {@link ImageFormat#NV21} array.
+     *
+     * @param pool The pool to draw the array from. The array may be longer than the image.
+     */
+    private static byte[] toNv21(Image image, ByteArrayPool pool) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final Image.Plane[] planes = image.getPlanes();
+        final byte[] nv21 = pool.acquire(width * height * 3 / 2);
+        final ByteBuffer y = planes[0].getBuffer();
+        final int yRowStride = planes[0].getRowStride();
+        int offset = 0;
+        for (int row = 0; row < height; row++) {
+            y.position(row * yRowStride);
+            y.get(nv21, offset, width);
+            offset += width;
+        }
+        // U and V always have the same strides
+        final ByteBuffer u = planes[1].getBuffer();
+        final ByteBuffer v = planes[2].getBuffer();
+        final int uvRowStride = planes[1].getRowStride();
+        final int uvPixelStride = planes[1].getPixelStride();
+        for (int row = 0; row < height / 2; row++) {
+            int index = row * uvRowStride;
+            for (int col = 0; col < width / 2; col++) {
+                nv21[offset++] = v.get(index);
+                nv21[offset++] = u.get(index);
+                index += uvPixelStride;
+            }
+        }
+        return nv21;
+    }
+
+    /**
+     * Creates a request for burst pictures. It also targets the preview so that the preview keeps
+     * running, and trades noise reduction and flash for the frame rate.
+     */
+    private CaptureRequest.Builder createBurstRequest() throws CameraAccessException {
+        CaptureRequest.Builder builder = createStillCaptureRequest();
+        builder.addTarget(mSessionSurface);
+        builder.set(CaptureRequest.NOISE_REDUCTION_MODE,
+                CaptureRequest.NOISE_REDUCTION_MODE_FAST);
+        builder.set(CaptureRequest.EDGE_MODE, CaptureRequest.EDGE_MODE_FAST);
+        if (mFlash != Constants.FLASH_TORCH) {
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+            builder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+        }
+        return builder;
+    }
+
+    @Override
+    public boolean isBurstSupported() {
+        return true;
+    }
+
+    @Override
+    public void takeBurst(final int count) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCaptureSession == null) {
+                    mCallback.onTakePictureFailed(
+                            new IllegalStateException("Camera is not ready"));
+                    return;
+                }
+                if (mSessionZslReader != null) {
+                    mCallback.onTakePictureFailed(new IllegalStateException(
+                            "Bursts cannot be taken with zero shutter lag"));
+                    return;
+                }
+                if (mRecording != null) {
+                    // The burst requests would take the frames away from the recorder
+                    mCallback.onTakePictureFailed(new IllegalStateException(
+                            "Bursts cannot be taken while recording"));
+                    return;
+                }
+                try {
+                    final CaptureRequest request = createBurstRequest().build();
+                    mCaptureSession.captureBurst(Collections.nCopies(count, request),
+                            mBurstCaptureCallback, getCameraHandler());
+                    mBurstRemaining += count;
+                } catch (CameraAccessException | RuntimeException e) {
+                    Log.e(TAG, "Failed to take a burst.", e);
+                    mCallback.onTakePictureFailed(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void startBurst() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCaptureSession == null) {
+                    mCallback.onTakePictureFailed(
+                            new IllegalStateException("Camera is not ready"));
+                    return;
+                }
+                if (mSessionZslReader != null) {
+                    mCallback.onTakePictureFailed(new IllegalStateException(
+                            "Bursts cannot be taken with zero shutter lag"));
+                    return;
+                }
+                if (mRecording != null) {
+                    // The burst requests would take the frames away from the recorder
+                    mCallback.onTakePictureFailed(new IllegalStateException(
+                            "Bursts cannot be taken while recording"));
+                    return;
+                }
+                try {
+                    // The burst replaces the preview request; it also renders the preview
+                    mCaptureSession.setRepeatingRequest(createBurstRequest().build(),
+                            mBurstCaptureCallback, getCameraHandler());
+                    mRepeatingBurst = true;
+                } catch (CameraAccessException | RuntimeException e) {
+                    Log.e(TAG, "Failed to start a burst.", e);
+                    mCallback.onTakePictureFailed(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stopBurst() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!mRepeatingBurst) {
+                    return;
+                }
+                mRepeatingBurst = false;
+                if (mCaptureSession == null || mPreviewRequestBuilder == null) {
+                    return;
+                }
+                try {
+                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
+                            mCaptureCallback, getCameraHandler());
+                } catch (CameraAccessException e) {
+                    Log.e(TAG, "Failed to restart camera preview.", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void startRecording(final File file, final boolean audio) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mRecording != null) {
+                    mCallback.onRecordingFailed(new IllegalStateException("Already recording"));
+                    return;
+                }
+                if (!isCameraOpened() || mCaptureSession == null) {
+                    mCallback.onRecordingFailed(new IllegalStateException("Camera is not ready"));
+                    return;
+                }
+                final VideoRecording recording = new VideoRecording(file);
+                final Size size = VideoRecording.chooseSize(mCapabilities.getVideoSizes(),
+                        mAspectRatio, mSessionPreviewSize);
+                try {
+                    recording.prepare(MediaRecorder.VideoSource.SURFACE, size, audio,
+                            getJpegOrientation());
+                } catch (IOException | RuntimeException e) {
+                    recording.stop();
+                    mCallback.onRecordingFailed(e);
+                    return;
+                }
+                mRecording = recording;
+                mRecorderSurface = recording.getRecorder().getSurface();
+                mRecordingSize = size;
+                prepareImageReader();
+                // The recording starts once the new session is configured
+                startCaptureSession();
+            }
+        });
+    }
+
+    @Override
+    public void stopRecording() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mRecording == null) {
+                    return;
+                }
+                finishRecording(null);
+                if (isCameraOpened()) {
+                    prepareImageReader();
+                    startCaptureSession();
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean isRecording() {
+        return mRecording != null;
+    }
+
+    /**
+     * Stops {@link #mRecording} and reports the result. The capture session still has to be
+     * replaced by the caller. This runs on the camera thread.
+     *
+     * @param error The cause if the recording failed, or {@code null}.
+     */
+    private void finishRecording(Throwable error) {
+        final VideoRecording recording = mRecording;
+        if (recording == null) {
+            return;
+        }
+        mRecording = null;
+        mRecorderSurface = null;
+        mRecordingSize = null;
+        final boolean valid = recording.stop();
+        if (error == null && valid) {
+            mCallback.onVideoRecorded(recording.getFile());
+        } else {
+            mCallback.onRecordingFailed(error != null ? error
+                    : new IllegalStateException("No video was recorded"));
         }
     }
 
     public void resumePreview() {
-        if (isCameraOpened())
-            unlockFocus();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened())
+                    unlockFocus();
+            }
+        });
+    }
+
+    @Override
+    public void setFrameListener(FrameListener listener) {
+        final boolean changed = (mFrameListener == null) != (listener == null);
+        mFrameListener = listener;
+        if (changed) {
+            runOnCameraThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCaptureSession != null) {
+                        // The frame reader has to be added to or removed from the session
+                        closeCaptureSession();
+                        startCaptureSession();
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void setZeroShutterLag(boolean zeroShutterLag) {
+        if (getZeroShutterLag() == zeroShutterLag) {
+            return;
+        }
+        super.setZeroShutterLag(zeroShutterLag);
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCaptureSession != null) {
+                    // The session is only replaced if the full resolution frames are available
+                    startCaptureSession();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setSizePolicy(SizePolicy policy) {
+        super.setSizePolicy(policy);
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened()) {
+                    prepareImageReader();
+                    startCaptureSession();
+                }
+            }
+        });
     }
 
     /**
@@ -884,14 +1930,15 @@ class Camera2 extends CameraViewImpl {
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                 CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
+                    getCameraHandler());
             updateAutoFocus();
             updateFlash();
             updateZoom();
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                     CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
             mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback,
-                    null);
+                    getCameraHandler());
             mCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
         } catch (CameraAccessException e) {
             Log.e(TAG, "Failed to restart camera preview.", e);
@@ -902,8 +1949,109 @@ class Camera2 extends CameraViewImpl {
      * Resume AF_MODE_CONTINUOUS_PICTURE after FOCUS_HOLD_MILLIS.
      */
     private void resumeContinuousAFAfterDelay(int millis) {
-        mCameraHandler.removeCallbacks(mReturnToContinuousAFRunnable);
-        mCameraHandler.postDelayed(mReturnToContinuousAFRunnable, millis);
+        getCameraHandler().removeCallbacks(mReturnToContinuousAFRunnable);
+        getCameraHandler().postDelayed(mReturnToContinuousAFRunnable, millis);
+    }
+
+    /**
+     * A full resolution frame kept for zero shutter lag pictures.
+     */
+    private static class ZslFrame {
+
+        final Image mImage;
+
+        /** The time of the frame, comparable to the time of a shutter press */
+        final long mTime;
+
+        ZslFrame(Image image, long time) {
+            mImage = image;
+            mTime = time;
+        }
+
+    }
+
+    /**
+     * A pooled {@link Picture} that is counted while it is open, so that bursts do not outrun
+     * the app.
+     */
+    private static class CountedPicture extends Picture.PooledPicture {
+
+        private final AtomicInteger mOpenCount;
+
+        CountedPicture(byte[] array, int length, ByteArrayPool pool, AtomicInteger openCount) {
+            super(array, length, pool);
+            mOpenCount = openCount;
+            mOpenCount.incrementAndGet();
+        }
+
+        @Override
+        void release() {
+            super.release();
+            mOpenCount.decrementAndGet();
+        }
+
+    }
+
+    /**
+     * A {@link Frame} that refers directly to the planes of a YUV_420_888 {@link Image}. Instances
+     * are recycled through {@link #mPool}.
+     */
+    private static class ImageFrame extends Frame {
+
+        private final Pools.Pool<ImageFrame> mPool;
+
+        private Image mImage;
+
+        private Image.Plane[] mPlanes;
+
+        ImageFrame(Pools.Pool<ImageFrame> pool) {
+            mPool = pool;
+        }
+
+        void bind(Image image) {
+            reset();
+            mImage = image;
+            mPlanes = image.getPlanes();
+        }
+
+        @Override
+        public int getWidth() {
+            return mImage.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mImage.getHeight();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mImage.getTimestamp();
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return mPlanes[plane].getRowStride();
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return mPlanes[plane].getPixelStride();
+        }
+
+        @Override
+        ByteBuffer buffer(int plane) {
+            return mPlanes[plane].getBuffer();
+        }
+
+        @Override
+        void release() {
+            mImage.close();
+            mImage = null;
+            mPlanes = null;
+            mPool.release(this);
+        }
+
     }
 
     /**
@@ -919,6 +2067,9 @@ class Camera2 extends CameraViewImpl {
         static final int STATE_WAITING = 4;
         static final int STATE_CAPTURING = 5;
 
+        /** The tag of still capture requests, which end {@link #STATE_CAPTURING} */
+        static final Object STILL_CAPTURE_TAG = new Object();
+
         private int mState;
 
         PictureCaptureCallback() {
@@ -937,7 +2088,26 @@ class Camera2 extends CameraViewImpl {
         @Override
         public void onCaptureCompleted(@NonNull CameraCaptureSession session,
                                        @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-            process(result);
+            if (request.getTag() == STILL_CAPTURE_TAG) {
+                onPhaseReached(PhaseTimings.PHASE_CAPTURE_COMPLETED);
+                onStillCaptureFinished();
+            } else {
+                process(result);
+            }
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                    @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            if (request.getTag() == STILL_CAPTURE_TAG) {
+                onStillCaptureFinished();
+            }
+        }
+
+        private void onStillCaptureFinished() {
+            if (mState == STATE_CAPTURING) {
+                onCaptured();
+            }
         }
 
         private void process(@NonNull CaptureResult result) {
@@ -949,6 +2119,7 @@ class Camera2 extends CameraViewImpl {
                     }
                     if (af == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED ||
                             af == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+                        onPhaseReached(PhaseTimings.PHASE_FOCUS_LOCKED);
                         Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
                         if (ae == null || ae == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
                             setState(STATE_CAPTURING);
@@ -972,6 +2143,7 @@ class Camera2 extends CameraViewImpl {
                 case STATE_WAITING: {
                     Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
                     if (ae == null || ae != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
+                        onPhaseReached(PhaseTimings.PHASE_PRECAPTURE_DONE);
                         setState(STATE_CAPTURING);
                         onReady();
                     }
@@ -990,6 +2162,18 @@ class Camera2 extends CameraViewImpl {
          */
         public abstract void onPrecaptureRequired();
 
+        /**
+         * Called when the still picture has been captured, or failed to be. The state is still
+         * {@link #STATE_CAPTURING}.
+         */
+        public abstract void onCaptured();
+
+        /**
+         * Called when a {@link PhaseTimings} phase of taking a picture is reached.
+         */
+        void onPhaseReached(int phase) {
+        }
+
     }
 
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A {@link FrameListener} that hands preview frames over to a {@link FrameAnalyzer} running on
+ * its own executor, so that slow analyzers do not hold up the camera thread.
+ *
+ * <p>The strategy decides what happens when frames arrive faster than they are analyzed:</p>
+ * <ul>
+ * <li>{@link #STRATEGY_KEEP_LATEST} only keeps the most recent frame; stale frames are dropped.</li>
+ * <li>{@link #STRATEGY_QUEUE} queues frames up to the capacity and drops new frames beyond
+ * that.</li>
+ * <li>{@link #STRATEGY_BLOCK} queues frames up to the capacity and blocks the camera thread until
+ * there is room again.</li>
+ * </ul>
+ *
+ * <p>Pending frames are retained, and the camera only has a few frame buffers, so a capacity of
+ * more than two frames mostly makes the camera drop frames itself.</p>
+ */
+public class AnalysisPipeline implements FrameListener, Closeable {
+
+    private static final String TAG = "AnalysisPipeline";
+
+    /** Only analyze the most recent frame, dropping the ones that could not be analyzed in time. */
+    public static final int STRATEGY_KEEP_LATEST = 0;
+    /** Queue frames up to the capacity, dropping new frames while the queue is full. */
+    public static final int STRATEGY_QUEUE = 1;
+    /** Queue frames up to the capacity, blocking the camera thread while the queue is full. */
+    public static final int STRATEGY_BLOCK = 2;
+
+    /** How the pipeline copes with frames arriving faster than they are analyzed. */
+    @IntDef({STRATEGY_KEEP_LATEST, STRATEGY_QUEUE, STRATEGY_BLOCK})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Strategy {
+    }
+
+    private final FrameAnalyzer mAnalyzer;
+
+    @Strategy
+    private final int mStrategy;
+
+    private final int mCapacity;
+
+    private final Executor mExecutor;
+
+    /** The executor created by this pipeline, or {@code null} if it was provided by the caller */
+    private final ExecutorService mOwnedExecutor;
+
+    private final Object mLock = new Object();
+
+    private final ArrayDeque<Frame> mPending;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private boolean mDraining;
+
+    private boolean mClosed;
+
+    private long mDroppedFrameCount;
+
+    /**
+     * Creates a pipeline that only analyzes the most recent frame, on a thread of its own.
+     *
+     * @param analyzer The analyzer.
+     */
+    public AnalysisPipeline(@NonNull FrameAnalyzer analyzer) {
+        this(analyzer, STRATEGY_KEEP_LATEST, 1);
+    }
+
+    /**
+     * Creates a pipeline that analyzes frames on a thread of its own.
+     *
+     * @param analyzer The analyzer.
+     * @param strategy What to do when frames arrive faster than they are analyzed.
+     * @param capacity The maximum number of frames waiting to be analyzed. This is ignored for
+     *                 {@link #STRATEGY_KEEP_LATEST}.
+     */
+    public AnalysisPipeline(@NonNull FrameAnalyzer analyzer, @Strategy int strategy,
+            int capacity) {
+        this(analyzer, strategy, capacity, null);
+    }
+
+    /**
+     * Creates a pipeline that analyzes frames on the specified executor.
+     *
+     * @param analyzer The analyzer.
+     * @param strategy What to do when frames arrive faster than they are analyzed.
+     * @param capacity The maximum number of frames waiting to be analyzed. This is ignored for
+     *                 {@link #STRATEGY_KEEP_LATEST}.
+     * @param executor The executor to run the analyzer on, or {@code null} to use a thread of its
+     *                 own. Frames are never analyzed concurrently, even if the executor has
+     *                 several threads.
+     */
+    public AnalysisPipeline(@NonNull FrameAnalyzer analyzer, @Strategy int strategy, int capacity,
+            Executor executor) {
+        if (strategy != STRATEGY_KEEP_LATEST && strategy != STRATEGY_QUEUE
+                && strategy != STRATEGY_BLOCK) {
+            throw new IllegalArgumentException("Unknown strategy: " + strategy);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mAnalyzer = analyzer;
+        mStrategy = strategy;
+        mCapacity = strategy == STRATEGY_KEEP_LATEST ? 1 : capacity;
+        mPending = new ArrayDeque<>(mCapacity);
+        if (executor == null) {
+            mOwnedExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    return new Thread(r, "FrameAnalyzer");
+                }
+            });
+            mExecutor = mOwnedExecutor;
+        } else {
+            mOwnedExecutor = null;
+            mExecutor = executor;
+        }
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        final boolean schedule;
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            if (mPending.size() >= mCapacity) {
+                switch (mStrategy) {
+                    case STRATEGY_KEEP_LATEST:
+                        mPending.poll().close();
+                        mDroppedFrameCount++;
+                        break;
+                    case STRATEGY_QUEUE:
+                        mDroppedFrameCount++;
+                        return;
+                    case STRATEGY_BLOCK:
+                        try {
+                            while (mPending.size() >= mCapacity && !mClosed) {
+                                mLock.wait();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            mDroppedFrameCount++;
+                            return;
+                        }
+                        if (mClosed) {
+                            return;
+                        }
+                        break;
+                }
+            }
+            mPending.add(frame.retain());
+            schedule = !mDraining;
+            mDraining = true;
+        }
+        if (schedule) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * @return The number of frames that were dropped by this pipeline so far.
+     */
+    public long getDroppedFrameCount() {
+        synchronized (mLock) {
+            return mDroppedFrameCount;
+        }
+    }
+
+    /**
+     * Stops analyzing frames. Frames that are still waiting to be analyzed are dropped. The
+     * analyzer thread is shut down unless the executor was provided to the constructor.
+     */
+    @Override
+    public void close() {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            clearPending();
+        }
+        if (mOwnedExecutor != null) {
+            mOwnedExecutor.shutdown();
+        }
+    }
+
+    private void scheduleDrain() {
+        try {
+            mExecutor.execute(mDrain);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Failed to schedule the analyzer", e);
+            synchronized (mLock) {
+                mDraining = false;
+                clearPending();
+            }
+        }
+    }
+
+    private void drain() {
+        boolean drained = false;
+        try {
+            while (true) {
+                final Frame frame;
+                synchronized (mLock) {
+                    frame = mPending.poll();
+                    if (frame == null) {
+                        mDraining = false;
+                        drained = true;
+                        return;
+                    }
+                    // Wake up the camera thread if it is blocked on a full queue
+                    mLock.notifyAll();
+                }
+                try {
+                    mAnalyzer.analyze(frame);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Analyzer failed", e);
+                } finally {
+                    frame.close();
+                }
+            }
+        } finally {
+            if (!drained) {
+                // An Error escaped the analyzer; the waiting frames are left to a new drain
+                final boolean schedule;
+                synchronized (mLock) {
+                    schedule = !mPending.isEmpty();
+                    mDraining = schedule;
+                }
+                if (schedule) {
+                    scheduleDrain();
+                }
+            }
+        }
+    }
+
+    private void clearPending() {
+        Frame frame;
+        while ((frame = mPending.poll()) != null) {
+            frame.close();
+        }
+        mLock.notifyAll();
+    }
+
+}
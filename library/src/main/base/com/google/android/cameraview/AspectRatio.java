@@ -19,15 +19,28 @@ package com.google.android.cameraview;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
-import android.support.v4.util.SparseArrayCompat;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Immutable class for describing proportional relationship between width and height.
  */
 public class AspectRatio implements Comparable<AspectRatio>, Parcelable {
 
-    private final static SparseArrayCompat<SparseArrayCompat<AspectRatio>> sCache
-            = new SparseArrayCompat<>(16);
+    private static final int CACHE_BITS = 8;
+
+    /** The number of slots in {@link #sCache}. */
+    private static final int CACHE_SIZE = 1 << CACHE_BITS;
+
+    /** The number of slots probed before giving up on interning a ratio. */
+    private static final int CACHE_MAX_PROBES = 8;
+
+    /**
+     * Interned instances, in a lock-free open addressing table with linear probing. Slots are
+     * only ever filled, never cleared or replaced, so a ratio found in a slot stays there.
+     */
+    private static final AtomicReferenceArray<AspectRatio> sCache
+            = new AtomicReferenceArray<>(CACHE_SIZE);
 
     private final int mX;
     private final int mY;
@@ -44,21 +57,34 @@ public class AspectRatio implements Comparable<AspectRatio>, Parcelable {
         int gcd = gcd(x, y);
         x /= gcd;
         y /= gcd;
-        SparseArrayCompat<AspectRatio> arrayX = sCache.get(x);
-        if (arrayX == null) {
-            AspectRatio ratio = new AspectRatio(x, y);
-            arrayX = new SparseArrayCompat<>();
-            arrayX.put(y, ratio);
-            sCache.put(x, arrayX);
-            return ratio;
-        } else {
-            AspectRatio ratio = arrayX.get(y);
+        int index = slot(x, y);
+        for (int probe = 0; probe < CACHE_MAX_PROBES; probe++) {
+            AspectRatio ratio = sCache.get(index);
             if (ratio == null) {
                 ratio = new AspectRatio(x, y);
-                arrayX.put(y, ratio);
+                if (sCache.compareAndSet(index, null, ratio)) {
+                    return ratio;
+                }
+                // Another thread filled the slot first; it may have been with the same ratio
+                ratio = sCache.get(index);
             }
-            return ratio;
+            if (ratio.mX == x && ratio.mY == y) {
+                return ratio;
+            }
+            index = (index + 1) & (CACHE_SIZE - 1);
         }
+        // Too many ratios are in use to intern this one, but it is still equal to other instances
+        return new AspectRatio(x, y);
+    }
+
+    /**
+     * @return The first slot in {@link #sCache} to probe for the reduced ratio {@code x}:{@code y}.
+     */
+    private static int slot(int x, int y) {
+        // Fibonacci hashing of the packed ratio spreads similar ratios over the table
+        final long key = ((long) x << 32) | (y & 0xffffffffL);
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> (Long.SIZE - CACHE_BITS));
     }
 
     /**
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.v4.util.SparseArrayCompat;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded pool of byte arrays, grouped into buckets by size.
+ *
+ * <p>Arrays handed out by {@link #acquire(int)} are rounded up to a size class, so that buffers
+ * for data of slightly different lengths (such as JPEG pictures of the same resolution) can be
+ * reused for each other. A size class is never more than 25% larger than the requested
+ * length.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+class ByteArrayPool {
+
+    /** The smallest size class. */
+    private static final int MIN_SIZE = 4096;
+
+    private final SparseArrayCompat<ArrayDeque<byte[]>> mBuckets = new SparseArrayCompat<>();
+
+    private final int mMaxBytes;
+
+    private int mPooledBytes;
+
+    /**
+     * @param maxBytes The maximum total size of the arrays kept in this pool.
+     */
+    ByteArrayPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns an array of at least {@code length} bytes, reusing a pooled one if possible.
+     *
+     * @param length The minimum length of the array.
+     * @return An array. Its content is undefined.
+     */
+    byte[] acquire(int length) {
+        final int size = sizeClass(length);
+        synchronized (this) {
+            ArrayDeque<byte[]> bucket = mBuckets.get(size);
+            if (bucket != null && !bucket.isEmpty()) {
+                mPooledBytes -= size;
+                return bucket.pop();
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Returns an array to this pool. Arrays that were not obtained from {@link #acquire(int)} and
+     * arrays that would exceed the capacity of this pool are left to the garbage collector.
+     *
+     * @param array The array to recycle. It must not be used after this call.
+     */
+    void release(byte[] array) {
+        final int size = array.length;
+        if (size != sizeClass(size)) {
+            return;
+        }
+        synchronized (this) {
+            if (mPooledBytes + size > mMaxBytes) {
+                return;
+            }
+            ArrayDeque<byte[]> bucket = mBuckets.get(size);
+            if (bucket == null) {
+                bucket = new ArrayDeque<>();
+                mBuckets.put(size, bucket);
+            }
+            bucket.push(array);
+            mPooledBytes += size;
+        }
+    }
+
+    /**
+     * Drops all the pooled arrays.
+     */
+    synchronized void clear() {
+        mBuckets.clear();
+        mPooledBytes = 0;
+    }
+
+    /**
+     * @return The total size of the arrays currently kept in this pool.
+     */
+    synchronized int getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    /**
+     * Rounds {@code length} up to a multiple of a quarter of the next smaller power of two.
+     */
+    static int sizeClass(int length) {
+        if (length <= MIN_SIZE) {
+            return MIN_SIZE;
+        }
+        final int step = Integer.highestOneBit(length - 1) >> 2;
+        return (length + step - 1) / step * step;
+    }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.graphics.Rect;
+import android.support.v4.util.ArrayMap;
+
+/**
+ * Immutable description of what a camera device can do: its size tables, sensor orientation,
+ * active array, maximum zoom, and focus and flash support.
+ *
+ * <p>The capabilities of a camera do not change while the process is running, so they are
+ * collected once and kept in a process-wide cache. Switching between cameras then does not have
+ * to query the camera service and rebuild the size tables again.</p>
+ */
+class CameraCapabilities {
+
+    private static final ArrayMap<String, CameraCapabilities> sCache = new ArrayMap<>();
+
+    /**
+     * @param key The key identifying the camera, including anything else the capabilities depend
+     *            on, such as the camera API or the preview output class.
+     * @return The cached capabilities, or {@code null} if they have not been collected yet.
+     */
+    static CameraCapabilities get(String key) {
+        synchronized (sCache) {
+            return sCache.get(key);
+        }
+    }
+
+    /**
+     * Adds capabilities to the cache. If another thread has cached capabilities for the same key
+     * in the meantime, those are kept.
+     *
+     * @return The capabilities in the cache for the key.
+     */
+    static CameraCapabilities put(String key, CameraCapabilities capabilities) {
+        synchronized (sCache) {
+            final CameraCapabilities existing = sCache.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            sCache.put(key, capabilities);
+            return capabilities;
+        }
+    }
+
+    static void clearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    private final SizeMap mPreviewSizes;
+
+    private final SizeMap mPictureSizes;
+
+    private final SizeMap mFrameSizes;
+
+    private final SizeMap mStillFrameSizes;
+
+    private final SizeMap mVideoSizes;
+
+    private final int mSensorOrientation;
+
+    private final Rect mActiveArray;
+
+    private final float mMaxZoom;
+
+    private final boolean mAutoFocusSupported;
+
+    private final boolean mFlashSupported;
+
+    private final boolean mFocusAreaSupported;
+
+    private final boolean mMeteringAreaSupported;
+
+    private final boolean mRealtimeTimestamps;
+
+    private CameraCapabilities(Builder builder) {
+        mPreviewSizes = builder.mPreviewSizes;
+        mPictureSizes = builder.mPictureSizes;
+        mFrameSizes = builder.mFrameSizes;
+        mStillFrameSizes = builder.mStillFrameSizes;
+        mVideoSizes = builder.mVideoSizes;
+        mPreviewSizes.freeze();
+        mPictureSizes.freeze();
+        mFrameSizes.freeze();
+        mStillFrameSizes.freeze();
+        mVideoSizes.freeze();
+        mSensorOrientation = builder.mSensorOrientation;
+        mActiveArray = builder.mActiveArray == null ? null : new Rect(builder.mActiveArray);
+        mMaxZoom = builder.mMaxZoom;
+        mAutoFocusSupported = builder.mAutoFocusSupported;
+        mFlashSupported = builder.mFlashSupported;
+        mFocusAreaSupported = builder.mFocusAreaSupported;
+        mMeteringAreaSupported = builder.mMeteringAreaSupported;
+        mRealtimeTimestamps = builder.mRealtimeTimestamps;
+    }
+
+    /**
+     * @return The preview sizes. Only aspect ratios that also have picture sizes are included.
+     */
+    SizeMap getPreviewSizes() {
+        return mPreviewSizes;
+    }
+
+    SizeMap getPictureSizes() {
+        return mPictureSizes;
+    }
+
+    /**
+     * @return The sizes available for preview frames. This is empty if the camera API does not
+     * allow to choose them independently of the preview.
+     */
+    SizeMap getFrameSizes() {
+        return mFrameSizes;
+    }
+
+    /**
+     * @return The sizes available for full resolution YUV frames, which zero shutter lag pictures
+     * are taken from. This is empty if the camera API does not provide them.
+     */
+    SizeMap getStillFrameSizes() {
+        return mStillFrameSizes;
+    }
+
+    /**
+     * @return The sizes that videos can be recorded at. If this is empty, videos are recorded at
+     * the preview size.
+     */
+    SizeMap getVideoSizes() {
+        return mVideoSizes;
+    }
+
+    int getSensorOrientation() {
+        return mSensorOrientation;
+    }
+
+    /**
+     * @return A copy of the active array of the sensor, or {@code null} if it is unknown.
+     */
+    Rect getActiveArray() {
+        return mActiveArray == null ? null : new Rect(mActiveArray);
+    }
+
+    float getMaxZoom() {
+        return mMaxZoom;
+    }
+
+    boolean isAutoFocusSupported() {
+        return mAutoFocusSupported;
+    }
+
+    boolean isFlashSupported() {
+        return mFlashSupported;
+    }
+
+    /**
+     * @return {@code true} if the focus can be set to a region of the picture.
+     */
+    boolean isFocusAreaSupported() {
+        return mFocusAreaSupported;
+    }
+
+    /**
+     * @return {@code true} if the exposure can be metered on a region of the picture.
+     */
+    boolean isMeteringAreaSupported() {
+        return mMeteringAreaSupported;
+    }
+
+    /**
+     * @return {@code true} if frame timestamps use the same time base as
+     * {@link android.os.SystemClock#elapsedRealtimeNanos()}.
+     */
+    boolean hasRealtimeTimestamps() {
+        return mRealtimeTimestamps;
+    }
+
+    static class Builder {
+
+        private SizeMap mPreviewSizes = new SizeMap();
+
+        private SizeMap mPictureSizes = new SizeMap();
+
+        private SizeMap mFrameSizes = new SizeMap();
+
+        private SizeMap mStillFrameSizes = new SizeMap();
+
+        private SizeMap mVideoSizes = new SizeMap();
+
+        private int mSensorOrientation;
+
+        private Rect mActiveArray;
+
+        private float mMaxZoom = 1.f;
+
+        private boolean mAutoFocusSupported;
+
+        private boolean mFlashSupported;
+
+        private boolean mFocusAreaSupported;
+
+        private boolean mMeteringAreaSupported;
+
+        private boolean mRealtimeTimestamps;
+
+        /**
+         * Sets the preview and picture sizes. Aspect ratios of the preview sizes that have no
+         * picture sizes are dropped, unless that would leave none.
+         */
+        Builder setSizes(SizeMap previewSizes, SizeMap pictureSizes) {
+            boolean matching = false;
+            for (AspectRatio ratio : previewSizes.ratios()) {
+                if (pictureSizes.sizes(ratio) != null) {
+                    matching = true;
+                    break;
+                }
+            }
+            if (matching) {
+                for (AspectRatio ratio : previewSizes.ratios().toArray(new AspectRatio[0])) {
+                    if (pictureSizes.sizes(ratio) == null) {
+                        previewSizes.remove(ratio);
+                    }
+                }
+            }
+            mPreviewSizes = previewSizes;
+            mPictureSizes = pictureSizes;
+            return this;
+        }
+
+        Builder setFrameSizes(SizeMap frameSizes) {
+            mFrameSizes = frameSizes;
+            return this;
+        }
+
+        Builder setStillFrameSizes(SizeMap stillFrameSizes) {
+            mStillFrameSizes = stillFrameSizes;
+            return this;
+        }
+
+        Builder setVideoSizes(SizeMap videoSizes) {
+            mVideoSizes = videoSizes;
+            return this;
+        }
+
+        Builder setSensorOrientation(int sensorOrientation) {
+            mSensorOrientation = sensorOrientation;
+            return this;
+        }
+
+        Builder setActiveArray(Rect activeArray) {
+            mActiveArray = activeArray;
+            return this;
+        }
+
+        Builder setMaxZoom(float maxZoom) {
+            mMaxZoom = maxZoom;
+            return this;
+        }
+
+        Builder setAutoFocusSupported(boolean autoFocusSupported) {
+            mAutoFocusSupported = autoFocusSupported;
+            return this;
+        }
+
+        Builder setFlashSupported(boolean flashSupported) {
+            mFlashSupported = flashSupported;
+            return this;
+        }
+
+        Builder setFocusAreaSupported(boolean focusAreaSupported) {
+            mFocusAreaSupported = focusAreaSupported;
+            return this;
+        }
+
+        Builder setMeteringAreaSupported(boolean meteringAreaSupported) {
+            mMeteringAreaSupported = meteringAreaSupported;
+            return this;
+        }
+
+        Builder setRealtimeTimestamps(boolean realtimeTimestamps) {
+            mRealtimeTimestamps = realtimeTimestamps;
+            return this;
+        }
+
+        CameraCapabilities build() {
+            return new CameraCapabilities(this);
+        }
+
+    }
+
+}
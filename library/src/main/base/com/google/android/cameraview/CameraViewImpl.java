@@ -16,7 +16,13 @@
 
 package com.google.android.cameraview;
 
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.view.View;
+
+import java.io.File;
 import java.util.Set;
 
 public abstract class CameraViewImpl {
@@ -25,6 +31,18 @@ public abstract class CameraViewImpl {
 
     protected final PreviewImpl mPreview;
 
+    private Looper mCameraLooper;
+
+    private HandlerThread mCameraThread;
+
+    private Handler mCameraHandler;
+
+    private volatile SizePolicy mSizePolicy = SizePolicy.NONE;
+
+    private volatile boolean mKeepPreviewRunning;
+
+    private volatile boolean mZeroShutterLag;
+
     public CameraViewImpl(Callback callback, PreviewImpl preview) {
         mCallback = callback;
         mPreview = preview;
@@ -35,7 +53,74 @@ public abstract class CameraViewImpl {
     }
 
     /**
-     * @return {@code true} if the implementation was able to start the camera session.
+     * Sets the looper that camera work and camera callbacks run on. This has to be called while
+     * the camera is closed.
+     *
+     * @param looper The looper, or {@code null} to use a background thread owned by this instance.
+     */
+    public synchronized void setCameraLooper(Looper looper) {
+        if (looper == mCameraLooper && mCameraHandler != null) {
+            return;
+        }
+        release();
+        mCameraLooper = looper;
+    }
+
+    /**
+     * Releases the background thread owned by this instance once the work already posted to it
+     * has run. This should only be called after {@link #stop()}. A new thread is created if the
+     * camera is used again.
+     */
+    public synchronized void release() {
+        final HandlerThread thread = mCameraThread;
+        mCameraThread = null;
+        mCameraHandler = null;
+        if (thread != null) {
+            // Posted rather than using quitSafely(), which needs API level 18
+            new Handler(thread.getLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    thread.quit();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return The {@link Handler} for the thread that camera work and camera callbacks run on.
+     */
+    synchronized Handler getCameraHandler() {
+        if (mCameraHandler == null) {
+            Looper looper = mCameraLooper;
+            if (looper == null) {
+                mCameraThread = new HandlerThread("CameraView",
+                        Process.THREAD_PRIORITY_URGENT_DISPLAY);
+                mCameraThread.start();
+                looper = mCameraThread.getLooper();
+            }
+            mCameraHandler = new Handler(looper);
+        }
+        return mCameraHandler;
+    }
+
+    /**
+     * Runs the specified action on the camera thread. It runs immediately if this is called on
+     * the camera thread, and is posted otherwise.
+     */
+    void runOnCameraThread(Runnable action) {
+        final Handler handler = getCameraHandler();
+        if (handler.getLooper() == Looper.myLooper()) {
+            action.run();
+        } else {
+            handler.post(action);
+        }
+    }
+
+    /**
+     * Starts opening the camera. Failures found out on the camera thread are reported to
+     * {@link Callback#onCameraNotAvailable()} or {@link Callback#onLegacyCamera()}.
+     *
+     * @return {@code false} if this implementation cannot open the camera at all.
      */
     public abstract boolean start();
 
@@ -72,6 +157,45 @@ public abstract class CameraViewImpl {
 
     public abstract void takePicture();
 
+    /**
+     * @return {@code true} if {@link #takeBurst(int)} and {@link #startBurst()} are supported.
+     */
+    public boolean isBurstSupported() {
+        return false;
+    }
+
+    /**
+     * Takes a number of pictures in quick succession while the preview keeps running. Each
+     * picture is delivered to {@link Callback#onPictureTaken(Picture)}.
+     */
+    public void takeBurst(int count) {
+        throw new UnsupportedOperationException("Burst is not supported");
+    }
+
+    /**
+     * Takes pictures repeatedly until {@link #stopBurst()} is called.
+     */
+    public void startBurst() {
+        throw new UnsupportedOperationException("Burst is not supported");
+    }
+
+    public void stopBurst() {
+    }
+
+    /**
+     * Starts recording a video while the preview keeps running. The outcome is reported to
+     * {@link Callback#onRecordingStarted()}, {@link Callback#onVideoRecorded(File)} or
+     * {@link Callback#onRecordingFailed(Throwable)}.
+     *
+     * @param file  The file to record to.
+     * @param audio {@code true} to record audio as well.
+     */
+    public abstract void startRecording(File file, boolean audio);
+
+    public abstract void stopRecording();
+
+    public abstract boolean isRecording();
+
     public abstract void setDisplayOrientation(int displayOrientation);
 
     public abstract boolean hasManualFocus();
@@ -80,6 +204,50 @@ public abstract class CameraViewImpl {
 
     public abstract void resumePreview();
 
+    /**
+     * Sets the listener for preview frames. Frames are only captured while a listener is set.
+     *
+     * @param listener The listener, or {@code null} to stop capturing frames.
+     */
+    public abstract void setFrameListener(FrameListener listener);
+
+    /**
+     * Sets the policy constraining picture and preview sizes. Implementations override this to
+     * reconfigure an open camera.
+     */
+    public void setSizePolicy(SizePolicy policy) {
+        mSizePolicy = policy;
+    }
+
+    public SizePolicy getSizePolicy() {
+        return mSizePolicy;
+    }
+
+    /**
+     * Sets whether the preview keeps running while a picture is taken, rather than staying frozen
+     * until {@link #resumePreview()} is called.
+     */
+    public void setKeepPreviewRunning(boolean keepPreviewRunning) {
+        mKeepPreviewRunning = keepPreviewRunning;
+    }
+
+    public boolean getKeepPreviewRunning() {
+        return mKeepPreviewRunning;
+    }
+
+    /**
+     * Sets whether pictures are taken from recently captured frames, rather than with a capture
+     * sequence started by {@link #takePicture()}. Implementations that support it override this
+     * to reconfigure an open camera.
+     */
+    public void setZeroShutterLag(boolean zeroShutterLag) {
+        mZeroShutterLag = zeroShutterLag;
+    }
+
+    public boolean getZeroShutterLag() {
+        return mZeroShutterLag;
+    }
+
     public interface Callback {
 
         void onCameraOpened();
@@ -88,16 +256,47 @@ public abstract class CameraViewImpl {
 
         void onCameraNotAvailable();
 
+        /**
+         * Called when the camera to open is only supported at the legacy level of the camera2
+         * API, so that the implementation has to be replaced with the camera1 one. Nothing is
+         * open when this is called.
+         */
+        void onLegacyCamera();
+
         void onCameraConfigured();
 
+        /**
+         * @param timeToFirstFrame Time from the switch request to the first preview frame of the
+         *                         new camera, in milliseconds.
+         */
+        void onCameraSwitched(long timeToFirstFrame);
+
         void onFocusAt(int x, int y);
 
-        void onPictureTaken(byte[] data);
+        void onPictureTaken(Picture picture);
 
         void onTakePictureFailed(Throwable throwable);
 
+        void onRecordingStarted();
+
+        /**
+         * @param file The file holding the recorded video.
+         */
+        void onVideoRecorded(File file);
+
+        void onRecordingFailed(Throwable throwable);
+
+        /**
+         * Reports that a phase of starting the camera or of taking a picture was reached. This is
+         * called synchronously, on the thread that reached the phase.
+         *
+         * @param phase One of the {@link PhaseTimings} phases.
+         */
+        void onPhase(int phase);
+
         Size onChoosePreviewSize(SizeMap availableSizes, Size suggestedSize, AspectRatio aspectRatio);
 
-        Size onChoosePictureSize(SizeMap availableSizes, AspectRatio aspectRatio);
+        Size onChoosePictureSize(SizeMap availableSizes, Size suggestedSize,
+                AspectRatio aspectRatio);
     }
 }
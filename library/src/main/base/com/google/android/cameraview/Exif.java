@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads the EXIF metadata of JPEG images in place, and writes the minimal metadata of images
+ * encoded by the library itself, which the camera did not tag.
+ */
+final class Exif {
+
+    /** The orientation of an image without the orientation tag */
+    static final int ORIENTATION_UNDEFINED = 0;
+    /** The EXIF value of the orientation tag for an image that is not rotated */
+    static final int ORIENTATION_NORMAL = 1;
+    static final int ORIENTATION_ROTATE_90 = 6;
+    static final int ORIENTATION_ROTATE_180 = 3;
+    static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int TYPE_SHORT = 3;
+
+    private static final int MARKER_PREFIX = 0xff;
+    private static final int MARKER_SOI = 0xd8;
+    private static final int MARKER_EOI = 0xd9;
+    private static final int MARKER_SOS = 0xda;
+    private static final int MARKER_APP1 = 0xe1;
+    private static final int MARKER_SOF0 = 0xc0;
+    private static final int MARKER_SOF15 = 0xcf;
+    private static final int MARKER_DHT = 0xc4;
+    private static final int MARKER_JPG = 0xc8;
+    private static final int MARKER_DAC = 0xcc;
+
+    /** The identifier at the start of the APP1 segment holding EXIF metadata */
+    private static final byte[] IDENTIFIER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final int IFD_ENTRY_LENGTH = 12;
+
+    /**
+     * Start of image, followed by an APP1 segment holding a big-endian TIFF header and a single
+     * IFD with the orientation. The orientation value is at {@link #ORIENTATION_OFFSET}.
+     */
+    private static final byte[] HEADER = {
+            (byte) 0xff, (byte) 0xd8,
+            (byte) 0xff, (byte) 0xe1, 0, 34,
+            'E', 'x', 'i', 'f', 0, 0,
+            'M', 'M', 0, 42, 0, 0, 0, 8,
+            0, 1,
+            (byte) (TAG_ORIENTATION >> 8), (byte) TAG_ORIENTATION, 0, TYPE_SHORT, 0, 0, 0, 1,
+            0, 0, 0, 0,
+            0, 0, 0, 0,
+    };
+
+    private static final int ORIENTATION_OFFSET = 31;
+
+    private Exif() {
+    }
+
+    /**
+     * @param degrees The clockwise rotation of the image needed to display it upright: 0, 90, 180
+     *                or 270.
+     * @return The value of the EXIF orientation tag for the rotation.
+     */
+    static int orientationFromDegrees(int degrees) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return ORIENTATION_ROTATE_90;
+            case 180:
+                return ORIENTATION_ROTATE_180;
+            case 270:
+                return ORIENTATION_ROTATE_270;
+            default:
+                return ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * @param orientation The value of the EXIF orientation tag.
+     * @return The clockwise rotation of the image needed to display it upright. Mirrored
+     * orientations are not rotated.
+     */
+    static int degreesFromOrientation(int orientation) {
+        switch (orientation) {
+            case ORIENTATION_ROTATE_90:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Reads the size of a JPEG image, and the orientation and the location of the thumbnail from
+     * its EXIF segment. Only the segment headers and the EXIF segment are read; the image is not
+     * copied.
+     *
+     * @param jpeg The JPEG image, from the position to the limit. The position is not modified.
+     * @return The metadata. Values that are not found in the image are left empty.
+     */
+    @NonNull
+    static Metadata read(ByteBuffer jpeg) {
+        final Metadata metadata = new Metadata();
+        try {
+            readSegments(jpeg.slice(), metadata);
+            return metadata;
+        } catch (IndexOutOfBoundsException e) {
+            // Truncated
+            return new Metadata();
+        }
+    }
+
+    /**
+     * Copies a JPEG image, adding an EXIF segment holding the orientation. This is only meant for
+     * images that do not have an orientation tag yet; otherwise, patch the tag in place.
+     *
+     * @param jpeg        The JPEG image, from the position to the limit. The position is not
+     *                    modified.
+     * @param orientation The value of the EXIF orientation tag.
+     * @return The tagged image.
+     */
+    static byte[] copyWithOrientation(ByteBuffer jpeg, int orientation) {
+        final ByteBuffer source = jpeg.duplicate();
+        // The header replaces the start of image marker
+        source.position(source.position() + 2);
+        final byte[] tagged = new byte[HEADER.length + source.remaining()];
+        System.arraycopy(HEADER, 0, tagged, 0, HEADER.length);
+        tagged[ORIENTATION_OFFSET] = (byte) orientation;
+        source.get(tagged, HEADER.length, source.remaining());
+        return tagged;
+    }
+
+    /**
+     * Replaces the value of the orientation tag of a JPEG image in place.
+     *
+     * @param jpeg        The JPEG image, from the position to the limit. It must be writable.
+     * @param metadata    The metadata of the image, with an orientation tag.
+     * @param orientation The new value of the EXIF orientation tag.
+     */
+    static void setOrientation(ByteBuffer jpeg, Metadata metadata, int orientation) {
+        final ByteBuffer target = jpeg.duplicate().order(metadata.getByteOrder());
+        target.putShort(jpeg.position() + metadata.getOrientationPosition(), (short) orientation);
+    }
+
+    private static void readSegments(ByteBuffer jpeg, Metadata metadata) {
+        if (unsignedByte(jpeg, 0) != MARKER_PREFIX || unsignedByte(jpeg, 1) != MARKER_SOI) {
+            return;
+        }
+        int position = 2;
+        while (unsignedByte(jpeg, position) == MARKER_PREFIX) {
+            final int marker = unsignedByte(jpeg, position + 1);
+            if (marker == MARKER_PREFIX) {
+                // Fill byte
+                position++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                // The metadata segments are over
+                return;
+            }
+            final int length = unsignedShort(jpeg, position + 2);
+            final int data = position + 4;
+            if (position + 2 + length > jpeg.limit()) {
+                // Truncated
+                return;
+            }
+            if (marker == MARKER_APP1 && length >= 2 + IDENTIFIER.length
+                    && hasIdentifier(jpeg, data) && metadata.mByteOrder == null) {
+                final ByteBuffer tiff = jpeg.duplicate();
+                tiff.limit(position + 2 + length);
+                tiff.position(data + IDENTIFIER.length);
+                readTiff(tiff.slice(), data + IDENTIFIER.length, metadata);
+            } else if (marker >= MARKER_SOF0 && marker <= MARKER_SOF15 && marker != MARKER_DHT
+                    && marker != MARKER_JPG && marker != MARKER_DAC) {
+                // The frame header follows the metadata segments
+                metadata.mHeight = unsignedShort(jpeg, data + 1);
+                metadata.mWidth = unsignedShort(jpeg, data + 3);
+                return;
+            }
+            position += 2 + length;
+        }
+    }
+
+    private static boolean hasIdentifier(ByteBuffer jpeg, int position) {
+        for (int i = 0; i < IDENTIFIER.length; i++) {
+            if (jpeg.get(position + i) != IDENTIFIER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param tiff   The TIFF structure inside the EXIF segment.
+     * @param offset The position of the TIFF structure in the image.
+     */
+    private static void readTiff(ByteBuffer tiff, int offset, Metadata metadata) {
+        final int byteOrder = unsignedShort(tiff, 0);
+        if (byteOrder == 0x4949) {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (byteOrder != 0x4d4d) {
+            return;
+        }
+        if (unsignedShort(tiff, 2) != 42) {
+            return;
+        }
+        metadata.mByteOrder = tiff.order();
+        final int ifd0 = tiff.getInt(4);
+        final int count0 = unsignedShort(tiff, ifd0);
+        for (int i = 0; i < count0; i++) {
+            final int entry = ifd0 + 2 + i * IFD_ENTRY_LENGTH;
+            if (unsignedShort(tiff, entry) == TAG_ORIENTATION) {
+                metadata.mOrientation = unsignedShort(tiff, entry + 8);
+                metadata.mOrientationPosition = offset + entry + 8;
+            }
+        }
+        // IFD1 describes the thumbnail
+        final int ifd1 = tiff.getInt(ifd0 + 2 + count0 * IFD_ENTRY_LENGTH);
+        if (ifd1 <= 0) {
+            return;
+        }
+        int thumbnailOffset = 0;
+        int thumbnailLength = 0;
+        final int count1 = unsignedShort(tiff, ifd1);
+        for (int i = 0; i < count1; i++) {
+            final int entry = ifd1 + 2 + i * IFD_ENTRY_LENGTH;
+            final int tag = unsignedShort(tiff, entry);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                thumbnailOffset = tiff.getInt(entry + 8);
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                thumbnailLength = tiff.getInt(entry + 8);
+            }
+        }
+        if (thumbnailOffset > 0 && thumbnailLength > 0
+                && thumbnailLength <= tiff.limit() - thumbnailOffset) {
+            metadata.mThumbnailPosition = offset + thumbnailOffset;
+            metadata.mThumbnailLength = thumbnailLength;
+        }
+    }
+
+    private static int unsignedByte(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xff;
+    }
+
+    private static int unsignedShort(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xffff;
+    }
+
+    /**
+     * The EXIF metadata of a JPEG image. Positions are relative to the start of the image.
+     */
+    static final class Metadata {
+
+        private int mOrientation = ORIENTATION_UNDEFINED;
+
+        private int mOrientationPosition = -1;
+
+        private ByteOrder mByteOrder;
+
+        private int mWidth;
+
+        private int mHeight;
+
+        private int mThumbnailPosition = -1;
+
+        private int mThumbnailLength;
+
+        /**
+         * @return The value of the orientation tag, or {@link #ORIENTATION_UNDEFINED}.
+         */
+        int getOrientation() {
+            return mOrientation;
+        }
+
+        /**
+         * @return The position of the 2-byte orientation value, or -1 if there is no orientation
+         * tag.
+         */
+        int getOrientationPosition() {
+            return mOrientationPosition;
+        }
+
+        /**
+         * @return The byte order of the values in the EXIF segment.
+         */
+        ByteOrder getByteOrder() {
+            return mByteOrder == null ? ByteOrder.BIG_ENDIAN : mByteOrder;
+        }
+
+        /**
+         * @return The width of the image, or 0 if the frame header was not found.
+         */
+        int getWidth() {
+            return mWidth;
+        }
+
+        /**
+         * @return The height of the image, or 0 if the frame header was not found.
+         */
+        int getHeight() {
+            return mHeight;
+        }
+
+        boolean hasThumbnail() {
+            return mThumbnailPosition >= 0;
+        }
+
+        /**
+         * @return The position of the embedded JPEG thumbnail, or -1 if there is none.
+         */
+        int getThumbnailPosition() {
+            return mThumbnailPosition;
+        }
+
+        int getThumbnailLength() {
+            return mThumbnailLength;
+        }
+
+    }
+
+    /**
+     * Wraps a stream so that a JPEG image written to it gets an EXIF segment holding the
+     * orientation. The segment replaces the start of image marker, so the image is not buffered.
+     *
+     * @param out         The stream to write the tagged image to.
+     * @param orientation The value of the EXIF orientation tag.
+     */
+    static OutputStream withOrientation(OutputStream out, int orientation) {
+        final byte[] header = HEADER.clone();
+        header[ORIENTATION_OFFSET] = (byte) orientation;
+        return new HeaderOutputStream(out, header);
+    }
+
+    /**
+     * Writes a header in place of the start of image marker of the JPEG image written to it.
+     */
+    private static class HeaderOutputStream extends FilterOutputStream {
+
+        private static final int SOI_LENGTH = 2;
+
+        private final byte[] mHeader;
+
+        /** The number of bytes of the start of image marker that are still to be skipped */
+        private int mSkip = SOI_LENGTH;
+
+        HeaderOutputStream(OutputStream out, byte[] header) {
+            super(out);
+            mHeader = header;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (skip(1) == 0) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            final int skipped = skip(len);
+            out.write(b, off + skipped, len - skipped);
+        }
+
+        /**
+         * @return The number of the next {@code len} bytes that belong to the start of image
+         * marker.
+         */
+        private int skip(int len) throws IOException {
+            if (mSkip == 0 || len == 0) {
+                return 0;
+            }
+            if (mSkip == SOI_LENGTH) {
+                out.write(mHeader);
+            }
+            final int skipped = Math.min(len, mSkip);
+            mSkip -= skipped;
+            return skipped;
+        }
+
+    }
+
+}
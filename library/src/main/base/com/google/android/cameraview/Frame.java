@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.graphics.ImageFormat;
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A camera preview frame delivered to a {@link FrameListener}.
+ *
+ * <p>Frames are always YUV 4:2:0 images laid out like {@link ImageFormat#YUV_420_888}: plane 0
+ * is Y, plane 1 is U (Cb) and plane 2 is V (Cr). The buffers of a frame are recycled by the
+ * camera once the frame is closed, so no memory is allocated per frame.</p>
+ *
+ * <p>A frame passed to {@link FrameListener#onFrame(Frame)} is closed as soon as the listener
+ * returns. Call {@link #retain()} to keep it open for longer, and {@link #close()} once you are
+ * done with it. The camera only has a few buffers; while they are all retained, new frames are
+ * dropped.</p>
+ */
+public abstract class Frame extends ReferenceCounted {
+
+    Frame() {
+    }
+
+    /**
+     * @return The width of this frame in pixels.
+     */
+    public abstract int getWidth();
+
+    /**
+     * @return The height of this frame in pixels.
+     */
+    public abstract int getHeight();
+
+    /**
+     * @return The format of this frame. This is always {@link ImageFormat#YUV_420_888}.
+     */
+    public int getFormat() {
+        return ImageFormat.YUV_420_888;
+    }
+
+    /**
+     * @return The time this frame was captured, in nanoseconds. The time base depends on the
+     * camera, so timestamps should only be compared with each other.
+     */
+    public abstract long getTimestamp();
+
+    /**
+     * Returns the pixel data of a plane of this frame. The buffer is only valid until this frame
+     * is closed.
+     *
+     * @param plane The index of the plane: 0 for Y, 1 for U, and 2 for V.
+     * @return A {@link ByteBuffer} positioned at the start of the plane.
+     * @throws IllegalStateException if this frame is already closed.
+     */
+    @NonNull
+    public ByteBuffer getBuffer(int plane) {
+        ensureOpen();
+        return buffer(plane).duplicate();
+    }
+
+    /**
+     * @param plane The index of the plane: 0 for Y, 1 for U, and 2 for V.
+     * @return The distance between the starts of two consecutive rows of the plane, in bytes.
+     */
+    public abstract int getRowStride(int plane);
+
+    /**
+     * @param plane The index of the plane: 0 for Y, 1 for U, and 2 for V.
+     * @return The distance between two consecutive pixels of a row of the plane, in bytes.
+     */
+    public abstract int getPixelStride(int plane);
+
+    /**
+     * Keeps this frame open until a matching call to {@link #close()}.
+     *
+     * @return This frame.
+     * @throws IllegalStateException if this frame is already closed.
+     */
+    @NonNull
+    @Override
+    public Frame retain() {
+        super.retain();
+        return this;
+    }
+
+    /**
+     * @return The buffer holding the plane. Callers must not modify its position or limit.
+     */
+    abstract ByteBuffer buffer(int plane);
+
+}
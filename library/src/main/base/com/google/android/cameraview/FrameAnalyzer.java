@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Analyzes preview frames off the camera thread.
+ *
+ * @see AnalysisPipeline
+ */
+public interface FrameAnalyzer {
+
+    /**
+     * Called on the executor of the {@link AnalysisPipeline} for each frame that is not dropped.
+     *
+     * @param frame The frame. It is closed when this method returns, unless it is retained with
+     * {@link Frame#retain()}.
+     */
+    void analyze(Frame frame);
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.v4.util.ArrayMap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Brings the pictures of a camera to the orientation convention of {@link Picture}: the EXIF
+ * orientation tag tells how to display the pixels upright, and a missing tag means that they are
+ * upright already.
+ *
+ * <p>When asked to rotate pictures, some cameras rotate the pixels and others only write the
+ * orientation tag; some even do both, or neither. Whether a camera rotates the pixels shows in
+ * the size of pictures rotated by 90 or 270 degrees. That is kept in a process-wide cache, and
+ * used for pictures whose size does not tell, such as those rotated by 180 degrees.</p>
+ *
+ * <p>Pictures are only ever fixed by patching the tag in place or, if there is none, by copying
+ * them behind a new EXIF segment. They are never decoded.</p>
+ */
+class JpegOrientation {
+
+    private static final ArrayMap<String, Boolean> sRotatesPixels = new ArrayMap<>();
+
+    static void clearCache() {
+        synchronized (sRotatesPixels) {
+            sRotatesPixels.clear();
+        }
+    }
+
+    private final String mKey;
+
+    /**
+     * @param key The key identifying the camera, as for {@link CameraCapabilities#get(String)}.
+     */
+    JpegOrientation(String key) {
+        mKey = key;
+    }
+
+    /**
+     * Fixes the orientation tag of a picture if needed.
+     *
+     * @param picture The picture from the camera.
+     * @param degrees The clockwise rotation the camera was asked to apply.
+     * @param width   The width of the picture the camera was asked for, before the rotation.
+     * @param height  The height of the picture the camera was asked for, before the rotation.
+     * @return The picture with the right orientation tag. If this is a new picture,
+     * {@code picture} is closed.
+     */
+    Picture normalize(Picture picture, int degrees, int width, int height) {
+        final ByteBuffer jpeg = picture.buffer();
+        final Exif.Metadata metadata = Exif.read(jpeg);
+        Boolean rotatesPixels = rotatesPixels(metadata, degrees, width, height);
+        if (rotatesPixels != null) {
+            synchronized (sRotatesPixels) {
+                sRotatesPixels.put(mKey, rotatesPixels);
+            }
+        } else {
+            synchronized (sRotatesPixels) {
+                rotatesPixels = sRotatesPixels.get(mKey);
+            }
+            if (rotatesPixels == null) {
+                // Not known yet; trust the camera
+                return picture;
+            }
+        }
+        final int expected = rotatesPixels
+                ? Exif.ORIENTATION_NORMAL : Exif.orientationFromDegrees(degrees);
+        final int actual = metadata.getOrientation() == Exif.ORIENTATION_UNDEFINED
+                ? Exif.ORIENTATION_NORMAL : metadata.getOrientation();
+        if (actual == expected) {
+            return picture;
+        }
+        if (metadata.getOrientationPosition() < 0) {
+            final Picture tagged = Picture.wrap(Exif.copyWithOrientation(jpeg, expected));
+            picture.close();
+            return tagged;
+        }
+        if (jpeg.isReadOnly()) {
+            final byte[] copy = new byte[jpeg.remaining()];
+            jpeg.duplicate().get(copy);
+            final Picture patched = Picture.wrap(copy);
+            picture.close();
+            Exif.setOrientation(patched.buffer(), metadata, expected);
+            return patched;
+        }
+        Exif.setOrientation(jpeg, metadata, expected);
+        return picture;
+    }
+
+    /**
+     * @return Whether the camera rotated the pixels, or {@code null} if the size of the picture
+     * does not tell.
+     */
+    private static Boolean rotatesPixels(Exif.Metadata metadata, int degrees,
+            int width, int height) {
+        if (degrees % 180 == 0 || width == height) {
+            return null;
+        }
+        if (metadata.getWidth() == width && metadata.getHeight() == height) {
+            return false;
+        }
+        if (metadata.getWidth() == height && metadata.getHeight() == width) {
+            return true;
+        }
+        return null;
+    }
+
+}
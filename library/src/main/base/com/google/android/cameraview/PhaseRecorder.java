@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.Arrays;
+
+/**
+ * Collects the times of the phases of the current startup and the current capture into
+ * {@link PhaseTimings}. Phases are reported from the camera thread and the main thread.
+ */
+class PhaseRecorder {
+
+    private final long[] mStartup = new long[PhaseTimings.PHASE_COUNT];
+
+    private final long[] mCapture = new long[PhaseTimings.PHASE_COUNT];
+
+    /**
+     * Records that a phase was reached. {@link PhaseTimings#PHASE_OPEN_REQUESTED} and
+     * {@link PhaseTimings#PHASE_TAKE_PICTURE} start a new startup or capture, abandoning the
+     * previous one if it was not finished. Other phases are only recorded the first time they are
+     * reached while a startup or capture is running.
+     *
+     * @param phase The phase.
+     * @param time  The time from {@link System#nanoTime()}.
+     * @return The timings if the phase finished the startup or the capture, or {@code null}.
+     */
+    synchronized PhaseTimings record(@PhaseTimings.Phase int phase, long time) {
+        final boolean startup = phase < PhaseTimings.PHASE_TAKE_PICTURE;
+        final long[] times = startup ? mStartup : mCapture;
+        if (phase == PhaseTimings.PHASE_OPEN_REQUESTED
+                || phase == PhaseTimings.PHASE_TAKE_PICTURE) {
+            Arrays.fill(times, 0);
+        } else if (times[startup ? PhaseTimings.PHASE_OPEN_REQUESTED
+                : PhaseTimings.PHASE_TAKE_PICTURE] == 0 || times[phase] != 0) {
+            return null;
+        }
+        times[phase] = time;
+        if (phase != PhaseTimings.PHASE_FIRST_FRAME
+                && phase != PhaseTimings.PHASE_CALLBACK_DELIVERED) {
+            return null;
+        }
+        final PhaseTimings timings = new PhaseTimings(times);
+        Arrays.fill(times, 0);
+        return timings;
+    }
+
+    /**
+     * Abandons the current capture, for instance because it failed.
+     */
+    synchronized void cancelCapture() {
+        Arrays.fill(mCapture, 0);
+    }
+
+}
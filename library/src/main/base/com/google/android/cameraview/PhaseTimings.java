@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+
+/**
+ * The times at which the phases of starting the camera or of taking a picture were reached.
+ *
+ * <p>A startup runs from {@link #PHASE_OPEN_REQUESTED} to {@link #PHASE_FIRST_FRAME}, and a
+ * capture from {@link #PHASE_TAKE_PICTURE} to {@link #PHASE_CALLBACK_DELIVERED}. Phases that do
+ * not apply, such as the precapture sequence on API level 20 and below, are not reached.</p>
+ *
+ * <p>Times are taken from {@link System#nanoTime()}, so they are only meaningful relative to each
+ * other.</p>
+ */
+public final class PhaseTimings {
+
+    /** {@link CameraView#start()} was called. */
+    public static final int PHASE_OPEN_REQUESTED = 0;
+    /** The camera device was opened. */
+    public static final int PHASE_OPENED = 1;
+    /** The preview was configured. */
+    public static final int PHASE_SESSION_CONFIGURED = 2;
+    /** The first preview frame was captured. */
+    public static final int PHASE_FIRST_FRAME = 3;
+    /** {@link CameraView#takePicture()} was called. */
+    public static final int PHASE_TAKE_PICTURE = 4;
+    /** The auto focus was locked. */
+    public static final int PHASE_FOCUS_LOCKED = 5;
+    /** The precapture sequence metering the exposure and flash was done. */
+    public static final int PHASE_PRECAPTURE_DONE = 6;
+    /** The camera captured the picture. */
+    public static final int PHASE_CAPTURE_COMPLETED = 7;
+    /** The encoded picture was available to the library. */
+    public static final int PHASE_IMAGE_AVAILABLE = 8;
+    /** The picture was delivered to {@link CameraView.Callback#onPictureTaken}. */
+    public static final int PHASE_CALLBACK_DELIVERED = 9;
+
+    static final int PHASE_COUNT = 10;
+
+    /** A phase of starting the camera or of taking a picture. */
+    @IntDef({PHASE_OPEN_REQUESTED, PHASE_OPENED, PHASE_SESSION_CONFIGURED, PHASE_FIRST_FRAME,
+            PHASE_TAKE_PICTURE, PHASE_FOCUS_LOCKED, PHASE_PRECAPTURE_DONE,
+            PHASE_CAPTURE_COMPLETED, PHASE_IMAGE_AVAILABLE, PHASE_CALLBACK_DELIVERED})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Phase {
+    }
+
+    /** Only the phases of a single startup or capture are set; 0 marks phases not reached */
+    private final long[] mTimes;
+
+    PhaseTimings(long[] times) {
+        mTimes = Arrays.copyOf(times, PHASE_COUNT);
+    }
+
+    /**
+     * @return {@code true} if these are the timings of starting the camera, {@code false} if they
+     * are the timings of taking a picture.
+     */
+    public boolean isStartup() {
+        return mTimes[PHASE_OPEN_REQUESTED] != 0;
+    }
+
+    /**
+     * @return {@code true} if the phase was reached.
+     */
+    public boolean hasReached(@Phase int phase) {
+        return mTimes[phase] != 0;
+    }
+
+    /**
+     * @return The time the phase was reached, from {@link System#nanoTime()}, or 0 if it was not
+     * reached.
+     */
+    public long getTime(@Phase int phase) {
+        return mTimes[phase];
+    }
+
+    /**
+     * @return The time between two phases in nanoseconds, or -1 if either was not reached.
+     */
+    public long getDuration(@Phase int from, @Phase int to) {
+        if (mTimes[from] == 0 || mTimes[to] == 0) {
+            return -1;
+        }
+        return mTimes[to] - mTimes[from];
+    }
+
+    /**
+     * @return The time from the first to the last phase in nanoseconds: the startup latency, or
+     * the shutter lag up to the delivery of the picture.
+     */
+    public long getTotalDuration() {
+        return isStartup()
+                ? getDuration(PHASE_OPEN_REQUESTED, PHASE_FIRST_FRAME)
+                : getDuration(PHASE_TAKE_PICTURE, PHASE_CALLBACK_DELIVERED);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(isStartup() ? "Startup" : "Capture");
+        final int first = isStartup() ? PHASE_OPEN_REQUESTED : PHASE_TAKE_PICTURE;
+        for (int phase = first + 1; phase < PHASE_COUNT; phase++) {
+            if (mTimes[phase] != 0) {
+                builder.append(' ').append(phase).append('=')
+                        .append((mTimes[phase] - mTimes[first]) / 1000000).append("ms");
+            }
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A handle to the JPEG data of a picture taken by {@link CameraView}.
+ *
+ * <p>The data is exposed as a {@link ByteBuffer} that refers to the memory the camera wrote the
+ * picture into, or to a pooled buffer, so that it can be written to a file or fed to a decoder
+ * without being copied again. Until the handle is closed, that memory cannot be reused.</p>
+ *
+ * <p>A picture passed to {@link CameraView.Callback#onPictureTaken(CameraView, Picture)} is closed
+ * as soon as all the callbacks have returned. Call {@link #retain()} to keep it open for longer,
+ * and {@link #close()} once you are done with it.</p>
+ *
+ * <p>Whether the camera rotated the pixels or not, the EXIF orientation tag of the data tells how
+ * to display them upright, and a missing tag means that they are upright already. This holds
+ * for all cameras; the library fixes the tag for cameras that get it wrong.</p>
+ */
+public abstract class Picture extends ReferenceCounted {
+
+    private byte[] mBytes;
+
+    /**
+     * Creates a {@link Picture} backed by the specified array. The array is not copied.
+     *
+     * @param data The JPEG data.
+     * @return A new {@link Picture}.
+     */
+    static Picture wrap(final byte[] data) {
+        return new Picture() {
+
+            @Override
+            ByteBuffer buffer() {
+                return ByteBuffer.wrap(data);
+            }
+
+            @Override
+            byte[] array() {
+                return data;
+            }
+
+            @Override
+            void release() {
+            }
+
+        };
+    }
+
+    /**
+     * Creates a {@link Picture} holding a copy of the specified data in an array drawn from
+     * {@code pool}. The array is returned to the pool when the picture is closed.
+     *
+     * @param data The JPEG data. Its position is not modified.
+     * @param pool The pool to draw the array from.
+     * @return A new {@link Picture}.
+     */
+    static Picture copyOf(ByteBuffer data, ByteArrayPool pool) {
+        final int length = data.remaining();
+        final byte[] array = pool.acquire(length);
+        data.duplicate().get(array, 0, length);
+        return wrap(array, length, pool);
+    }
+
+    /**
+     * Creates a {@link Picture} backed by the start of an array drawn from {@code pool}. The
+     * array is returned to the pool when the picture is closed.
+     *
+     * @param array  The array holding the JPEG data.
+     * @param length The length of the JPEG data.
+     * @param pool   The pool the array was drawn from.
+     * @return A new {@link Picture}.
+     */
+    static Picture wrap(byte[] array, int length, ByteArrayPool pool) {
+        return new PooledPicture(array, length, pool);
+    }
+
+    Picture() {
+    }
+
+    /**
+     * Returns the JPEG data of this picture. The returned buffer is read-only and shares its
+     * content with the camera; it is only valid until this picture is closed.
+     *
+     * @return A read-only {@link ByteBuffer} positioned at the start of the JPEG data.
+     * @throws IllegalStateException if this picture is already closed.
+     */
+    @NonNull
+    public ByteBuffer getBuffer() {
+        ensureOpen();
+        return buffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The size of the JPEG data in bytes.
+     * @throws IllegalStateException if this picture is already closed.
+     */
+    public int getLength() {
+        ensureOpen();
+        return buffer().remaining();
+    }
+
+    /**
+     * Returns the JPEG data of this picture as a byte array. Depending on the camera
+     * implementation, this may copy the whole picture; prefer {@link #getBuffer()} when possible.
+     * The same array is returned on every call, and it stays valid after this picture is closed.
+     *
+     * @return The JPEG data.
+     * @throws IllegalStateException if this picture is already closed.
+     */
+    @NonNull
+    public synchronized byte[] getBytes() {
+        if (mBytes == null) {
+            ensureOpen();
+            mBytes = array();
+            if (mBytes == null) {
+                ByteBuffer buffer = buffer().duplicate();
+                mBytes = new byte[buffer.remaining()];
+                buffer.get(mBytes);
+            }
+        }
+        return mBytes;
+    }
+
+    /**
+     * Keeps this picture open until a matching call to {@link #close()}.
+     *
+     * @return This picture.
+     * @throws IllegalStateException if this picture is already closed.
+     */
+    @NonNull
+    @Override
+    public Picture retain() {
+        super.retain();
+        return this;
+    }
+
+    /**
+     * @return The buffer holding the JPEG data, positioned at its start. Callers must not modify
+     * its position or limit.
+     */
+    abstract ByteBuffer buffer();
+
+    /**
+     * @return The array holding exactly the JPEG data, or {@code null} if the data is not backed
+     * by such an array. The array must remain valid after this picture is released.
+     */
+    byte[] array() {
+        return null;
+    }
+
+    /**
+     * A {@link Picture} backed by the start of an array drawn from a {@link ByteArrayPool}. The
+     * array is returned to the pool when the picture is closed, unless {@link #getBytes()} handed
+     * it out because it holds exactly the JPEG data.
+     */
+    static class PooledPicture extends Picture {
+
+        private final byte[] mArray;
+
+        private final int mLength;
+
+        private final ByteArrayPool mPool;
+
+        private boolean mHandedOut;
+
+        PooledPicture(byte[] array, int length, ByteArrayPool pool) {
+            mArray = array;
+            mLength = length;
+            mPool = pool;
+        }
+
+        @Override
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(mArray, 0, mLength);
+        }
+
+        @Override
+        synchronized byte[] array() {
+            if (mArray.length != mLength) {
+                return null;
+            }
+            // The array now belongs to the app and cannot be reused
+            mHandedOut = true;
+            return mArray;
+        }
+
+        @Override
+        synchronized void release() {
+            if (!mHandedOut) {
+                mPool.release(mArray);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates small, upright thumbnails of pictures on an executor of its own, without decoding the
+ * pictures at full resolution.
+ *
+ * <p>The thumbnail embedded in the EXIF metadata is used if it is large enough. Otherwise, the
+ * picture is decoded with a sample size, which the JPEG decoder applies while decoding, so that
+ * only a bitmap of about the thumbnail size is allocated.</p>
+ *
+ * <p>Only the latest picture is waiting to be processed at any time. A picture that is still
+ * waiting when the next one arrives is dropped, because only the latest thumbnail is shown.</p>
+ */
+public class PictureThumbnailer implements Closeable {
+
+    private static final String TAG = "PictureThumbnailer";
+
+    /**
+     * Receives the thumbnails. The methods are called on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the thumbnail was created.
+         */
+        void onThumbnailCreated(@NonNull Bitmap thumbnail);
+
+        /**
+         * Called when the picture could not be decoded.
+         */
+        void onThumbnailFailed();
+
+    }
+
+    private final int mMaxSize;
+
+    private final Executor mExecutor;
+
+    /** The executor created by this thumbnailer, or {@code null} if it was provided by the caller */
+    private final ExecutorService mOwnedExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Object mLock = new Object();
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private Request mPending;
+
+    private boolean mDraining;
+
+    private volatile boolean mClosed;
+
+    /**
+     * Creates a thumbnailer that decodes pictures on a thread of its own.
+     *
+     * @param maxSize The maximum width and height of the thumbnails, in pixels.
+     */
+    public PictureThumbnailer(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * Creates a thumbnailer that decodes pictures on the specified executor.
+     *
+     * @param maxSize  The maximum width and height of the thumbnails, in pixels.
+     * @param executor The executor to decode on, or {@code null} to use a thread of its own.
+     */
+    public PictureThumbnailer(int maxSize, Executor executor) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Size must be positive: " + maxSize);
+        }
+        mMaxSize = maxSize;
+        if (executor == null) {
+            mOwnedExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    return new Thread(r, "PictureThumbnailer");
+                }
+            });
+            mExecutor = mOwnedExecutor;
+        } else {
+            mOwnedExecutor = null;
+            mExecutor = executor;
+        }
+    }
+
+    /**
+     * Creates a thumbnail of a picture. The picture is retained until it is decoded, so it can be
+     * called from {@link CameraView.Callback#onPictureTaken(CameraView, Picture)}.
+     *
+     * @param picture  The picture.
+     * @param listener The listener receiving the thumbnail.
+     * @return {@code false} if this thumbnailer is closed.
+     */
+    public boolean createThumbnail(@NonNull Picture picture, @NonNull Listener listener) {
+        final Request dropped;
+        final boolean schedule;
+        synchronized (mLock) {
+            if (mClosed) {
+                return false;
+            }
+            dropped = mPending;
+            mPending = new Request(picture.retain(), listener);
+            schedule = !mDraining;
+            mDraining = true;
+        }
+        if (dropped != null) {
+            dropped.mPicture.close();
+        }
+        if (schedule) {
+            try {
+                mExecutor.execute(mDrain);
+            } catch (RejectedExecutionException e) {
+                Log.e(TAG, "Failed to schedule the thumbnailer", e);
+                synchronized (mLock) {
+                    mDraining = false;
+                    clearPending();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops creating thumbnails. A picture that is still waiting is dropped, and no more
+     * thumbnails are delivered. The decoder thread is shut down unless the executor was provided
+     * to the constructor.
+     */
+    @Override
+    public void close() {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            clearPending();
+        }
+        if (mOwnedExecutor != null) {
+            mOwnedExecutor.shutdown();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            final Request request;
+            synchronized (mLock) {
+                request = mPending;
+                mPending = null;
+                if (request == null) {
+                    mDraining = false;
+                    return;
+                }
+            }
+            Bitmap thumbnail;
+            try {
+                thumbnail = decode(request.mPicture.getBuffer(), mMaxSize);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to decode the picture", e);
+                thumbnail = null;
+            } finally {
+                request.mPicture.close();
+            }
+            deliver(request.mListener, thumbnail);
+        }
+    }
+
+    private void deliver(final Listener listener, final Bitmap thumbnail) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mClosed) {
+                    return;
+                }
+                if (thumbnail != null) {
+                    listener.onThumbnailCreated(thumbnail);
+                } else {
+                    listener.onThumbnailFailed();
+                }
+            }
+        });
+    }
+
+    private void clearPending() {
+        if (mPending != null) {
+            mPending.mPicture.close();
+            mPending = null;
+        }
+    }
+
+    /**
+     * @return An upright thumbnail of the JPEG image that fits in {@code maxSize}, or
+     * {@code null} if the image cannot be decoded.
+     */
+    private static Bitmap decode(ByteBuffer jpeg, int maxSize) {
+        final Exif.Metadata metadata = Exif.read(jpeg);
+        Bitmap bitmap = null;
+        if (metadata.hasThumbnail()) {
+            final ByteBuffer embedded = jpeg.duplicate();
+            embedded.position(jpeg.position() + metadata.getThumbnailPosition());
+            embedded.limit(embedded.position() + metadata.getThumbnailLength());
+            bitmap = decodeSampled(embedded, maxSize, true);
+        }
+        if (bitmap == null) {
+            bitmap = decodeSampled(jpeg, maxSize, false);
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        return fit(bitmap, maxSize, Exif.degreesFromOrientation(metadata.getOrientation()));
+    }
+
+    /**
+     * Decodes a JPEG image at the largest sample size that keeps it at least {@code maxSize}
+     * large.
+     *
+     * @param atLeastMaxSize {@code true} to skip images smaller than {@code maxSize}.
+     * @return The bitmap, or {@code null}.
+     */
+    private static Bitmap decodeSampled(ByteBuffer jpeg, int maxSize, boolean atLeastMaxSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(new BufferInputStream(jpeg), null, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        if (atLeastMaxSize && Math.max(options.outWidth, options.outHeight) < maxSize) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, maxSize);
+        return BitmapFactory.decodeStream(new BufferInputStream(jpeg), null, options);
+    }
+
+    /**
+     * @return The largest power of two by which the image can be subsampled while its longer
+     * side stays at least {@code maxSize}.
+     */
+    static int computeSampleSize(int width, int height, int maxSize) {
+        final int longer = Math.max(width, height);
+        int sampleSize = 1;
+        while (longer / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scales the bitmap down to fit in {@code maxSize} and rotates it upright.
+     */
+    private static Bitmap fit(Bitmap bitmap, int maxSize, int degrees) {
+        final int longer = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longer <= maxSize && degrees == 0) {
+            return bitmap;
+        }
+        final Matrix matrix = new Matrix();
+        if (longer > maxSize) {
+            final float scale = (float) maxSize / longer;
+            matrix.postScale(scale, scale);
+        }
+        matrix.postRotate(degrees);
+        final Bitmap fitted = Bitmap.createBitmap(bitmap, 0, 0,
+                bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (fitted != bitmap) {
+            bitmap.recycle();
+        }
+        return fitted;
+    }
+
+    private static class Request {
+
+        private final Picture mPicture;
+
+        private final Listener mListener;
+
+        Request(Picture picture, Listener listener) {
+            mPicture = picture;
+            mListener = listener;
+        }
+
+    }
+
+    /**
+     * Reads a buffer from its position to its limit, without modifying it.
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer mBuffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer.duplicate();
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            final int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+
+    }
+
+}
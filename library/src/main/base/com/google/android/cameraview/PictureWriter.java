@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes pictures to files on an executor of its own, so that saving pictures does not hold up
+ * the main thread or the camera.
+ *
+ * <p>The encoded data is written straight from the buffer of the {@link Picture}, without
+ * copying it. The picture is closed as soon as it is written, so that the camera can reuse its
+ * buffer, but syncing the files to storage is deferred until no more pictures are waiting. The
+ * files of a burst are then synced together after the last one is written, each with a sync of
+ * its own, rather than each right after it is written.</p>
+ *
+ * <p>At most the capacity of pictures wait to be written. Further pictures are rejected, because
+ * every waiting picture holds on to a camera buffer.</p>
+ */
+public class PictureWriter implements Closeable {
+
+    private static final String TAG = "PictureWriter";
+
+    /**
+     * Receives the results of writing pictures. The methods are called on the executor of the
+     * {@link PictureWriter}.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the picture was written and synced to storage.
+         */
+        void onPictureWritten(File file);
+
+        /**
+         * Called when the picture could not be written. The file may be incomplete.
+         */
+        void onWriteFailed(File file, IOException e);
+
+    }
+
+    private final int mCapacity;
+
+    private final Executor mExecutor;
+
+    /** The executor created by this writer, or {@code null} if it was provided by the caller */
+    private final ExecutorService mOwnedExecutor;
+
+    private final Object mLock = new Object();
+
+    private final ArrayDeque<Request> mPending;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private boolean mDraining;
+
+    private boolean mClosed;
+
+    private long mPictureCount;
+
+    private long mByteCount;
+
+    private long mWriteNanos;
+
+    /**
+     * Creates a writer that writes pictures on a thread of its own.
+     *
+     * @param capacity The maximum number of pictures waiting to be written.
+     */
+    public PictureWriter(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates a writer that writes pictures on the specified executor.
+     *
+     * @param capacity The maximum number of pictures waiting to be written.
+     * @param executor The executor to write on, or {@code null} to use a thread of its own.
+     *                 Pictures are never written concurrently, even if the executor has several
+     *                 threads.
+     */
+    public PictureWriter(int capacity, Executor executor) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        mPending = new ArrayDeque<>(capacity);
+        if (executor == null) {
+            mOwnedExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    return new Thread(r, "PictureWriter");
+                }
+            });
+            mExecutor = mOwnedExecutor;
+        } else {
+            mOwnedExecutor = null;
+            mExecutor = executor;
+        }
+    }
+
+    /**
+     * Writes a picture to a file, replacing the file if it exists. The picture is retained until
+     * it is written, so it can be called from
+     * {@link CameraView.Callback#onPictureTaken(CameraView, Picture)}.
+     *
+     * @param picture  The picture.
+     * @param file     The file to write to.
+     * @param listener The listener notified of the result, or {@code null}.
+     * @return {@code false} if the picture was rejected because too many pictures are waiting to
+     * be written or this writer is closed.
+     */
+    public boolean write(@NonNull Picture picture, @NonNull File file, Listener listener) {
+        final boolean schedule;
+        synchronized (mLock) {
+            if (mClosed || mPending.size() >= mCapacity) {
+                return false;
+            }
+            mPending.add(new Request(picture.retain(), file, listener));
+            schedule = !mDraining;
+            mDraining = true;
+        }
+        return !schedule || scheduleDrain();
+    }
+
+    /**
+     * @return The number of pictures written so far.
+     */
+    public long getPictureCount() {
+        synchronized (mLock) {
+            return mPictureCount;
+        }
+    }
+
+    /**
+     * @return The number of bytes written so far.
+     */
+    public long getByteCount() {
+        synchronized (mLock) {
+            return mByteCount;
+        }
+    }
+
+    /**
+     * @return The average rate at which pictures were written and synced, in bytes per second,
+     * or 0 if no picture was written yet. Time spent waiting for pictures is not counted.
+     */
+    public long getThroughput() {
+        synchronized (mLock) {
+            return mWriteNanos == 0 ? 0 : (long) (mByteCount * 1e9 / mWriteNanos);
+        }
+    }
+
+    /**
+     * Stops writing pictures. Pictures that are still waiting to be written are dropped without
+     * notifying their listeners. The writer thread is shut down unless the executor was provided
+     * to the constructor.
+     */
+    @Override
+    public void close() {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            clearPending();
+        }
+        if (mOwnedExecutor != null) {
+            mOwnedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * @return {@code false} if the executor rejected the drain; the waiting pictures are dropped
+     * then.
+     */
+    private boolean scheduleDrain() {
+        try {
+            mExecutor.execute(mDrain);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Failed to schedule the writer", e);
+            synchronized (mLock) {
+                mDraining = false;
+                clearPending();
+            }
+            return false;
+        }
+    }
+
+    private void drain() {
+        final ArrayList<Request> batch = new ArrayList<>(mCapacity);
+        boolean drained = false;
+        try {
+            while (true) {
+                final long start = System.nanoTime();
+                long bytes = 0;
+                // Write what is waiting, and sync it together; at most the capacity of files are
+                // kept open for that
+                while (batch.size() < mCapacity) {
+                    final Request request;
+                    synchronized (mLock) {
+                        request = mPending.poll();
+                    }
+                    if (request == null) {
+                        break;
+                    }
+                    batch.add(request);
+                    bytes += request.write();
+                }
+                for (Request request : batch) {
+                    request.sync();
+                }
+                final long time = System.nanoTime() - start;
+                synchronized (mLock) {
+                    for (Request request : batch) {
+                        if (request.mError == null) {
+                            mPictureCount++;
+                        }
+                    }
+                    mByteCount += bytes;
+                    mWriteNanos += time;
+                }
+                for (Request request : batch) {
+                    request.notifyListener();
+                }
+                batch.clear();
+                synchronized (mLock) {
+                    if (mPending.isEmpty()) {
+                        mDraining = false;
+                        drained = true;
+                        return;
+                    }
+                }
+            }
+        } finally {
+            if (!drained) {
+                // An Error escaped; close the files of the batch and leave the waiting pictures
+                // to a new drain, so that they do not keep their camera buffers
+                for (Request request : batch) {
+                    request.abort();
+                }
+                final boolean schedule;
+                synchronized (mLock) {
+                    schedule = !mPending.isEmpty();
+                    mDraining = schedule;
+                }
+                if (schedule) {
+                    scheduleDrain();
+                }
+            }
+        }
+    }
+
+    private void clearPending() {
+        Request request;
+        while ((request = mPending.poll()) != null) {
+            request.mPicture.close();
+        }
+    }
+
+    private static class Request {
+
+        private final Picture mPicture;
+
+        private final File mFile;
+
+        private final Listener mListener;
+
+        private FileOutputStream mOutput;
+
+        private IOException mError;
+
+        Request(Picture picture, File file, Listener listener) {
+            mPicture = picture;
+            mFile = file;
+            mListener = listener;
+        }
+
+        /**
+         * Writes the picture and closes it. The file is left open for {@link #sync()}.
+         *
+         * @return The number of bytes written.
+         */
+        long write() {
+            try {
+                final ByteBuffer buffer = mPicture.getBuffer();
+                final long length = buffer.remaining();
+                mOutput = new FileOutputStream(mFile);
+                final FileChannel channel = mOutput.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                return length;
+            } catch (IOException e) {
+                mError = e;
+                return 0;
+            } finally {
+                mPicture.close();
+            }
+        }
+
+        /**
+         * Syncs the file to storage and closes it.
+         */
+        void sync() {
+            if (mOutput == null) {
+                return;
+            }
+            try {
+                if (mError == null) {
+                    mOutput.getChannel().force(false);
+                }
+            } catch (IOException e) {
+                mError = e;
+            } finally {
+                try {
+                    mOutput.close();
+                } catch (IOException e) {
+                    if (mError == null) {
+                        mError = e;
+                    }
+                }
+                mOutput = null;
+            }
+        }
+
+        /**
+         * Closes the file without syncing it or notifying the listener. The picture was already
+         * closed by {@link #write()}.
+         */
+        void abort() {
+            if (mOutput != null) {
+                try {
+                    mOutput.close();
+                } catch (IOException e) {
+                    // Nothing is reported for an aborted picture
+                }
+                mOutput = null;
+            }
+        }
+
+        void notifyListener() {
+            if (mListener == null) {
+                return;
+            }
+            try {
+                if (mError == null) {
+                    mListener.onPictureWritten(mFile);
+                } else {
+                    mListener.onWriteFailed(mFile, mError);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Listener failed", e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.io.OutputStream;
+
+/**
+ * An output stream that collects the data in an array drawn from a {@link ByteArrayPool}, so
+ * that a JPEG image encoded into it can be handed out as a {@link Picture} without being copied.
+ *
+ * <p>The array should be large enough for the data from the start. If it is not, the data is
+ * moved to a larger array from the pool.</p>
+ */
+class PooledOutputStream extends OutputStream {
+
+    private final ByteArrayPool mPool;
+
+    private byte[] mArray;
+
+    private int mLength;
+
+    /**
+     * @param pool     The pool to draw the array from.
+     * @param capacity The expected length of the data.
+     */
+    PooledOutputStream(ByteArrayPool pool, int capacity) {
+        mPool = pool;
+        mArray = pool.acquire(capacity);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(mLength + 1);
+        mArray[mLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) {
+        ensureCapacity(mLength + len);
+        System.arraycopy(b, off, mArray, mLength, len);
+        mLength += len;
+    }
+
+    /**
+     * @return The number of bytes written so far.
+     */
+    int size() {
+        return mLength;
+    }
+
+    /**
+     * Hands the data over to a new {@link Picture}, which returns the array to the pool when it
+     * is closed. Nothing can be written afterwards.
+     *
+     * @return The picture holding the data written so far.
+     */
+    Picture toPicture() {
+        final byte[] array = open();
+        mArray = null;
+        return Picture.wrap(array, mLength, mPool);
+    }
+
+    /**
+     * Returns the array to the pool, unless it was handed over by {@link #toPicture()}.
+     */
+    @Override
+    public void close() {
+        if (mArray != null) {
+            mPool.release(mArray);
+            mArray = null;
+        }
+    }
+
+    private byte[] open() {
+        if (mArray == null) {
+            throw new IllegalStateException("The stream is already closed");
+        }
+        return mArray;
+    }
+
+    private void ensureCapacity(int length) {
+        final byte[] array = open();
+        if (length <= array.length) {
+            return;
+        }
+        final byte[] larger = mPool.acquire(Math.max(length, array.length * 2));
+        System.arraycopy(array, 0, larger, 0, mLength);
+        mPool.release(array);
+        mArray = larger;
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base class for the buffers handed out by {@link CameraView} whose memory has to be given back
+ * explicitly. A buffer starts with one reference; {@link #retain()} adds one and
+ * {@link #close()} removes one. The memory is released when the last reference is removed.
+ */
+public abstract class ReferenceCounted implements Closeable {
+
+    private final AtomicInteger mReferenceCount = new AtomicInteger(1);
+
+    ReferenceCounted() {
+    }
+
+    /**
+     * Keeps this buffer open until a matching call to {@link #close()}.
+     *
+     * @return This buffer.
+     * @throws IllegalStateException if this buffer is already closed.
+     */
+    public ReferenceCounted retain() {
+        int count;
+        do {
+            count = mReferenceCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Already closed.");
+            }
+        } while (!mReferenceCount.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /**
+     * Removes a reference to this buffer. The underlying memory is released once every
+     * {@link #retain()} has been matched by a call to this method. Closing a buffer that is
+     * already closed has no effect.
+     */
+    @Override
+    public void close() {
+        int count;
+        do {
+            count = mReferenceCount.get();
+            if (count <= 0) {
+                return;
+            }
+        } while (!mReferenceCount.compareAndSet(count, count - 1));
+        if (count == 1) {
+            release();
+        }
+    }
+
+    /**
+     * @return {@code true} if this buffer is closed and its data is no longer accessible.
+     */
+    public boolean isClosed() {
+        return mReferenceCount.get() <= 0;
+    }
+
+    void ensureOpen() {
+        if (isClosed()) {
+            throw new IllegalStateException("Already closed.");
+        }
+    }
+
+    /**
+     * Makes a released buffer usable again, with a single reference. This is for buffers that
+     * are recycled by their owner.
+     */
+    void reset() {
+        mReferenceCount.set(1);
+    }
+
+    /**
+     * Returns the underlying memory to its owner. Called once, when the last reference is
+     * removed.
+     */
+    abstract void release();
+
+}
@@ -18,6 +18,7 @@ package com.google.android.cameraview;
 
 import android.support.v4.util.ArrayMap;
 
+import java.util.Collections;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -29,42 +30,48 @@ public class SizeMap {
 
     private final ArrayMap<AspectRatio, SortedSet<Size>> mRatios = new ArrayMap<>();
 
+    /** The minimum frame durations of the sizes that have one, in nanoseconds. */
+    private final ArrayMap<Size, Long> mMinFrameDurations = new ArrayMap<>();
+
+    /** The read-only view of the ratios, once this map is frozen. */
+    private Set<AspectRatio> mFrozenRatios;
+
+    /** The packed form of this map, once it is frozen. */
+    private SizeTable mTable;
+
     /**
      * Add a new {@link Size} to this collection.
      *
      * @param size The size to add.
      * @return {@code true} if it is added, {@code false} if it already exists and is not added.
+     * @throws UnsupportedOperationException if this map is frozen.
      */
     public boolean add(Size size) {
-        for (AspectRatio ratio : mRatios.keySet()) {
-            if (ratio.matches(size)) {
-                final SortedSet<Size> sizes = mRatios.get(ratio);
-                if (sizes.contains(size)) {
-                    return false;
-                } else {
-                    sizes.add(size);
-                    return true;
-                }
-            }
+        ensureNotFrozen();
+        // The ratio is reduced once and used as the key; there is no need to match the size
+        // against every ratio.
+        final AspectRatio ratio = AspectRatio.of(size.getWidth(), size.getHeight());
+        SortedSet<Size> sizes = mRatios.get(ratio);
+        if (sizes == null) {
+            sizes = new TreeSet<>();
+            mRatios.put(ratio, sizes);
         }
-        // None of the existing ratio matches the provided size; add a new key
-        SortedSet<Size> sizes = new TreeSet<>();
-        sizes.add(size);
-        mRatios.put(AspectRatio.of(size.getWidth(), size.getHeight()), sizes);
-        return true;
+        return sizes.add(size);
     }
 
     /**
      * Removes the specified aspect ratio and all sizes associated with it.
      *
      * @param ratio The aspect ratio to be removed.
+     * @throws UnsupportedOperationException if this map is frozen.
      */
     public void remove(AspectRatio ratio) {
+        ensureNotFrozen();
         mRatios.remove(ratio);
     }
 
     Set<AspectRatio> ratios() {
-        return mRatios.keySet();
+        return mFrozenRatios != null ? mFrozenRatios : mRatios.keySet();
     }
 
     SortedSet<Size> sizes(AspectRatio ratio) {
@@ -72,7 +79,62 @@ public class SizeMap {
     }
 
     void clear() {
+        ensureNotFrozen();
         mRatios.clear();
+        mMinFrameDurations.clear();
+    }
+
+    /**
+     * Sets the minimum frame duration of a size, which is the inverse of the highest frame rate
+     * that the camera can output the size at.
+     *
+     * @param size     The size.
+     * @param duration The minimum frame duration in nanoseconds.
+     * @throws UnsupportedOperationException if this map is frozen.
+     */
+    void setMinFrameDuration(Size size, long duration) {
+        ensureNotFrozen();
+        mMinFrameDurations.put(size, duration);
+    }
+
+    /**
+     * @return The minimum frame duration of the size in nanoseconds, or 0 if it is not known.
+     */
+    long getMinFrameDuration(Size size) {
+        final Long duration = mMinFrameDurations.get(size);
+        return duration == null ? 0 : duration;
+    }
+
+    /**
+     * Makes this map read-only, so that it can be shared between threads and camera sessions.
+     */
+    void freeze() {
+        if (mFrozenRatios != null) {
+            return;
+        }
+        for (int i = 0, count = mRatios.size(); i < count; i++) {
+            mRatios.setValueAt(i, Collections.unmodifiableSortedSet(mRatios.valueAt(i)));
+        }
+        mFrozenRatios = Collections.unmodifiableSet(mRatios.keySet());
+        mTable = new SizeTable(this);
+    }
+
+    /**
+     * @return The packed form of this map for fast size queries, or {@code null} if this map is
+     * not frozen.
+     */
+    SizeTable table() {
+        return mTable;
+    }
+
+    boolean isFrozen() {
+        return mFrozenRatios != null;
+    }
+
+    private void ensureNotFrozen() {
+        if (mFrozenRatios != null) {
+            throw new UnsupportedOperationException("This SizeMap is frozen.");
+        }
     }
 
     boolean isEmpty() {
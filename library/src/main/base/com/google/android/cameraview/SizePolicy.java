@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Constrains the sizes of pictures and preview frames, so that the camera does not capture,
+ * encode and copy more pixels than the app uses.
+ *
+ * <p>Without constraints, pictures are taken at the largest size of the aspect ratio, and the
+ * preview is the smallest size that covers the view. A policy can choose pictures by a target
+ * resolution in megapixels or by the resolution of whatever consumes them, and can cap the size
+ * of every frame. All sizes stay within the aspect ratio of the {@link CameraView}.</p>
+ *
+ * <pre>
+ * cameraView.setSizePolicy(new SizePolicy.Builder()
+ *         .setTargetMegapixels(2.f)
+ *         .build());
+ * </pre>
+ */
+public class SizePolicy {
+
+    /** The policy without any constraints. */
+    public static final SizePolicy NONE = new Builder().build();
+
+    /** Frame sizes are computed for uncompressed YUV 4:2:0, as the camera outputs them. */
+    private static final int BITS_PER_PIXEL = 12;
+
+    private final float mTargetMegapixels;
+
+    private final long mMaxBytesPerFrame;
+
+    private final int mConsumerWidth;
+
+    private final int mConsumerHeight;
+
+    private SizePolicy(Builder builder) {
+        mTargetMegapixels = builder.mTargetMegapixels;
+        mMaxBytesPerFrame = builder.mMaxBytesPerFrame;
+        mConsumerWidth = builder.mConsumerWidth;
+        mConsumerHeight = builder.mConsumerHeight;
+    }
+
+    /**
+     * @return The target resolution of pictures in megapixels, or 0 if there is none.
+     */
+    public float getTargetMegapixels() {
+        return mTargetMegapixels;
+    }
+
+    /**
+     * @return The maximum size of an uncompressed frame in bytes, or 0 if there is none.
+     */
+    public long getMaxBytesPerFrame() {
+        return mMaxBytesPerFrame;
+    }
+
+    /**
+     * @return The resolution that pictures and preview frames are consumed at, or {@code null}
+     * if there is none.
+     */
+    public Size getConsumerSize() {
+        return mConsumerWidth == 0 ? null : new Size(mConsumerWidth, mConsumerHeight);
+    }
+
+    /**
+     * @return The strategy choosing the picture size.
+     */
+    SizeSelector.Strategy pictureStrategy() {
+        final SizeSelector.Strategy strategy;
+        if (mConsumerWidth > 0) {
+            strategy = SizeSelector.smallestCovering(mConsumerWidth, mConsumerHeight);
+        } else if (mTargetMegapixels > 0) {
+            strategy = SizeSelector.closestArea((long) (mTargetMegapixels * 1000000));
+        } else {
+            strategy = SizeSelector.largest();
+        }
+        return withinBandwidth(strategy);
+    }
+
+    /**
+     * @param width  The width that the preview should cover.
+     * @param height The height that the preview should cover.
+     * @return The strategy choosing the preview size.
+     */
+    SizeSelector.Strategy previewStrategy(int width, int height) {
+        return withinBandwidth(SizeSelector.smallestCovering(width, height));
+    }
+
+    /**
+     * @param previewSize The preview size.
+     * @return The strategy choosing the size of the preview frames, if they can be chosen
+     * independently of the preview.
+     */
+    SizeSelector.Strategy frameStrategy(Size previewSize) {
+        if (mConsumerWidth > 0) {
+            return withinBandwidth(SizeSelector.smallestCovering(mConsumerWidth,
+                    mConsumerHeight));
+        }
+        return withinBandwidth(SizeSelector.largestWithin(previewSize.getWidth(),
+                previewSize.getHeight()));
+    }
+
+    private SizeSelector.Strategy withinBandwidth(SizeSelector.Strategy strategy) {
+        if (mMaxBytesPerFrame <= 0) {
+            return strategy;
+        }
+        return SizeSelector.withinBandwidth(strategy, mMaxBytesPerFrame, BITS_PER_PIXEL);
+    }
+
+    /**
+     * Builds {@link SizePolicy} instances. Constraints that are not set do not apply.
+     */
+    public static class Builder {
+
+        private float mTargetMegapixels;
+
+        private long mMaxBytesPerFrame;
+
+        private int mConsumerWidth;
+
+        private int mConsumerHeight;
+
+        /**
+         * Takes pictures at the size closest to a resolution. This is ignored if a consumer size
+         * is set.
+         *
+         * @param megapixels The resolution in megapixels, or 0 for the largest size.
+         */
+        public Builder setTargetMegapixels(float megapixels) {
+            if (megapixels < 0) {
+                throw new IllegalArgumentException("Megapixels must not be negative: "
+                        + megapixels);
+            }
+            mTargetMegapixels = megapixels;
+            return this;
+        }
+
+        /**
+         * Limits the size of pictures, the preview and preview frames, so that an uncompressed
+         * YUV 4:2:0 frame takes at most the specified number of bytes. When no size is small
+         * enough, the smallest one is used.
+         *
+         * @param bytes The maximum number of bytes per frame, or 0 for no limit.
+         */
+        public Builder setMaxBytesPerFrame(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Bytes must not be negative: " + bytes);
+            }
+            mMaxBytesPerFrame = bytes;
+            return this;
+        }
+
+        /**
+         * Takes pictures, and receives preview frames where the camera allows it, at the
+         * smallest size that covers the resolution they are consumed at, e.g. the resolution of
+         * an upload or of an image analyzer. The orientation does not matter.
+         *
+         * @param width  The width, or 0 together with {@code height} for no consumer size.
+         * @param height The height.
+         */
+        public Builder setConsumerSize(int width, int height) {
+            if (width < 0 || height < 0 || (width == 0) != (height == 0)) {
+                throw new IllegalArgumentException("Invalid consumer size: " + width + "x"
+                        + height);
+            }
+            // Camera sizes are landscape
+            mConsumerWidth = Math.max(width, height);
+            mConsumerHeight = Math.min(width, height);
+            return this;
+        }
+
+        public SizePolicy build() {
+            return new SizePolicy(this);
+        }
+
+    }
+
+}
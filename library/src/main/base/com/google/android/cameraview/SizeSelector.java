@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Chooses sizes for the camera outputs. This is shared by the camera implementations and has no
+ * dependencies on the camera APIs.
+ *
+ * <p>A {@link Strategy} picks one size out of the sizes of an aspect ratio. The sizes are given
+ * as a {@link SizeTable.Row}, so strategies are built from binary searches rather than scans.</p>
+ */
+final class SizeSelector {
+
+    /**
+     * Picks one of the sizes of an aspect ratio.
+     */
+    interface Strategy {
+
+        /**
+         * @param sizes The sizes of the aspect ratio, from small to large. Never empty.
+         * @return The index of the chosen size.
+         */
+        int choose(SizeTable.Row sizes);
+
+    }
+
+    private static final Strategy LARGEST = new Strategy() {
+        @Override
+        public int choose(SizeTable.Row sizes) {
+            return sizes.count() - 1;
+        }
+    };
+
+    private SizeSelector() {
+    }
+
+    /**
+     * @param sizes    The candidate sizes.
+     * @param ratio    The aspect ratio of the candidates.
+     * @param strategy The strategy choosing among the sizes of the ratio.
+     * @return The chosen size, or {@code null} if there are no sizes of the ratio.
+     */
+    static Size select(SizeMap sizes, AspectRatio ratio, Strategy strategy) {
+        SizeTable table = sizes.table();
+        if (table == null) { // Not frozen; this is not a size table shared by a camera
+            table = new SizeTable(sizes);
+        }
+        final SizeTable.Row row = table.row(ratio);
+        return row == null ? null : row.get(strategy.choose(row));
+    }
+
+    /**
+     * @return A strategy choosing the smallest size that is at least {@code width} x
+     * {@code height}, or the largest size if none is big enough.
+     */
+    static Strategy smallestCovering(final int width, final int height) {
+        return new Strategy() {
+            @Override
+            public int choose(SizeTable.Row sizes) {
+                return coveringWithin(sizes, width, height, sizes.count());
+            }
+        };
+    }
+
+    /**
+     * @return A strategy choosing the largest size.
+     */
+    static Strategy largest() {
+        return LARGEST;
+    }
+
+    /**
+     * @return A strategy choosing the largest size that is at most {@code width} x
+     * {@code height}, or the smallest size if none is small enough.
+     */
+    static Strategy largestWithin(final int width, final int height) {
+        return new Strategy() {
+            @Override
+            public int choose(SizeTable.Row sizes) {
+                // The first size that does not fit is the first one that is wider or taller
+                final int wider = sizes.indexOfFirstCovering(width + 1, 0);
+                final int taller = sizes.indexOfFirstCovering(0, height + 1);
+                return Math.max(Math.min(wider, taller) - 1, 0);
+            }
+        };
+    }
+
+    /**
+     * @return A strategy choosing the size whose area is closest to {@code width} x
+     * {@code height}. Of two sizes equally close, the larger one is chosen.
+     */
+    static Strategy closestArea(int width, int height) {
+        return closestArea((long) width * height);
+    }
+
+    /**
+     * @return A strategy choosing the size whose area is closest to {@code area} pixels. Of two
+     * sizes equally close, the larger one is chosen.
+     */
+    static Strategy closestArea(final long area) {
+        return new Strategy() {
+            @Override
+            public int choose(SizeTable.Row sizes) {
+                final int index = sizes.indexOfFirstAreaAtLeast(area);
+                if (index == sizes.count()) {
+                    return index - 1;
+                }
+                if (index > 0 && area - sizes.area(index - 1) < sizes.area(index) - area) {
+                    return index - 1;
+                }
+                return index;
+            }
+        };
+    }
+
+    /**
+     * @return A strategy choosing the smallest size that is at least {@code width} x
+     * {@code height} among the sizes that the camera can output at {@code fps} frames per
+     * second. If none of those is big enough, the largest of them is chosen, and if the camera
+     * cannot output any size that fast, the smallest size.
+     */
+    static Strategy coveringAtFrameRate(final int width, final int height, final int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("The frame rate must be positive: " + fps);
+        }
+        return new Strategy() {
+            @Override
+            public int choose(SizeTable.Row sizes) {
+                return coveringWithin(sizes, width, height,
+                        sizes.countFrameDurationAtMost(1000000000L / fps));
+            }
+        };
+    }
+
+    /**
+     * @return A strategy choosing the largest size that the camera can output at {@code fps}
+     * frames per second, or the smallest size if it cannot output any size that fast.
+     */
+    static Strategy largestAtFrameRate(final int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("The frame rate must be positive: " + fps);
+        }
+        return new Strategy() {
+            @Override
+            public int choose(SizeTable.Row sizes) {
+                return Math.max(sizes.countFrameDurationAtMost(1000000000L / fps) - 1, 0);
+            }
+        };
+    }
+
+    /**
+     * @return A strategy choosing the smallest size that is at least {@code width} x
+     * {@code height} among the sizes whose frames take at most {@code maxBytesPerFrame} with
+     * {@code bitsPerPixel}. If none of those is big enough, the largest of them is chosen, and if
+     * no size is small enough, the smallest size.
+     */
+    static Strategy coveringWithinBandwidth(int width, int height, long maxBytesPerFrame,
+            int bitsPerPixel) {
+        return withinBandwidth(smallestCovering(width, height), maxBytesPerFrame, bitsPerPixel);
+    }
+
+    /**
+     * @return A strategy choosing what {@code strategy} chooses, unless its frames take more
+     * than {@code maxBytesPerFrame} with {@code bitsPerPixel}. Then the largest size whose frames
+     * are small enough is chosen, or the smallest size if there is none.
+     */
+    static Strategy withinBandwidth(final Strategy strategy, final long maxBytesPerFrame,
+            final int bitsPerPixel) {
+        if (bitsPerPixel <= 0) {
+            throw new IllegalArgumentException("Bits per pixel must be positive: "
+                    + bitsPerPixel);
+        }
+        return new Strategy() {
+            @Override
+            public int choose(SizeTable.Row sizes) {
+                final long maxPixels = maxBytesPerFrame * 8 / bitsPerPixel;
+                final int count = sizes.indexOfFirstAreaAtLeast(maxPixels + 1);
+                return Math.min(strategy.choose(sizes), Math.max(count - 1, 0));
+            }
+        };
+    }
+
+    /**
+     * @param count The number of sizes to choose from, counted from the smallest.
+     * @return The index of the smallest size that is at least {@code width} x {@code height}
+     * among the first {@code count} sizes, or the largest of them if none is big enough.
+     */
+    private static int coveringWithin(SizeTable.Row sizes, int width, int height, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        return Math.min(sizes.indexOfFirstCovering(width, height), count - 1);
+    }
+
+}
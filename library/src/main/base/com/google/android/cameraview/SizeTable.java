@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.v4.util.ArrayMap;
+
+import java.util.SortedSet;
+
+/**
+ * Immutable, packed form of a {@link SizeMap}.
+ *
+ * <p>The sizes of each aspect ratio are kept in a {@link Row} of packed dimensions sorted from
+ * small to large. All the sizes of one ratio are scaled versions of each other, so their widths,
+ * heights and areas grow together, and size queries are binary searches over that row. The table
+ * is built once when a {@link SizeMap} is frozen, and is shared with it.</p>
+ */
+final class SizeTable {
+
+    private final ArrayMap<AspectRatio, Row> mRows;
+
+    SizeTable(SizeMap sizeMap) {
+        mRows = new ArrayMap<>(sizeMap.ratios().size());
+        for (AspectRatio ratio : sizeMap.ratios()) {
+            mRows.put(ratio, new Row(sizeMap, sizeMap.sizes(ratio)));
+        }
+    }
+
+    /**
+     * @return The sizes of the ratio, or {@code null} if there are none.
+     */
+    Row row(AspectRatio ratio) {
+        return mRows.get(ratio);
+    }
+
+    /**
+     * @return The number of sizes of the ratio.
+     */
+    int count(AspectRatio ratio) {
+        final Row row = mRows.get(ratio);
+        return row == null ? 0 : row.count();
+    }
+
+    private static long pack(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    private static int unpackWidth(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int unpackHeight(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * The sizes of one aspect ratio, from small to large. Rows are never empty.
+     */
+    static final class Row {
+
+        /** The dimensions of the sizes, packed by {@link #pack(int, int)} */
+        private final long[] mDimensions;
+
+        /**
+         * The longest minimum frame duration of each size and all the sizes smaller than it, in
+         * nanoseconds. This keeps the durations sorted even if a device reports a larger size
+         * to be faster than a smaller one.
+         */
+        private final long[] mMinFrameDurations;
+
+        /** The same sizes, so that queries do not have to allocate their result */
+        private final Size[] mSizes;
+
+        Row(SizeMap sizeMap, SortedSet<Size> sizes) {
+            mSizes = sizes.toArray(new Size[sizes.size()]);
+            mDimensions = new long[mSizes.length];
+            mMinFrameDurations = new long[mSizes.length];
+            long minFrameDuration = 0;
+            for (int i = 0; i < mSizes.length; i++) {
+                mDimensions[i] = pack(mSizes[i].getWidth(), mSizes[i].getHeight());
+                minFrameDuration = Math.max(minFrameDuration,
+                        sizeMap.getMinFrameDuration(mSizes[i]));
+                mMinFrameDurations[i] = minFrameDuration;
+            }
+        }
+
+        int count() {
+            return mSizes.length;
+        }
+
+        Size get(int index) {
+            return mSizes[index];
+        }
+
+        long area(int index) {
+            final long dimensions = mDimensions[index];
+            return (long) unpackWidth(dimensions) * unpackHeight(dimensions);
+        }
+
+        /**
+         * @return The index of the first size that is at least {@code width} x {@code height},
+         * or {@link #count()} if there is none.
+         */
+        int indexOfFirstCovering(int width, int height) {
+            int low = 0;
+            int high = mDimensions.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                final long dimensions = mDimensions[mid];
+                if (unpackWidth(dimensions) >= width && unpackHeight(dimensions) >= height) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return The index of the first size with an area of at least {@code area} pixels, or
+         * {@link #count()} if there is none.
+         */
+        int indexOfFirstAreaAtLeast(long area) {
+            int low = 0;
+            int high = mDimensions.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (area(mid) >= area) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @param frameDuration The frame duration in nanoseconds.
+         * @return The number of sizes, counted from the smallest, that the camera can output
+         * with the frame duration. Sizes without a known minimum frame duration are assumed to
+         * be fast enough.
+         */
+        int countFrameDurationAtMost(long frameDuration) {
+            int low = 0;
+            int high = mMinFrameDurations.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (mMinFrameDurations[mid] > frameDuration) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
+    }
+
+}
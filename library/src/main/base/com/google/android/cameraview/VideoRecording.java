@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A video being recorded to a file with a {@link MediaRecorder}. The camera implementations
+ * connect the recorder to the camera; this configures the encoder the same way for both.
+ */
+class VideoRecording {
+
+    private static final String TAG = "VideoRecording";
+
+    static final int FRAME_RATE = 30;
+
+    /** The largest video size that H.264 encoders of all devices are expected to handle */
+    static final int MAX_WIDTH = 1920;
+    static final int MAX_HEIGHT = 1080;
+
+    /** The number of pixels per second encoded per bit; about 10 Mbit/s for 1080p at 30 fps */
+    private static final int PIXELS_PER_BIT = 6;
+
+    private static final int MIN_BIT_RATE = 500000;
+
+    /**
+     * @param videoSizes The sizes that the camera can record.
+     * @param ratio      The aspect ratio of the preview.
+     * @param fallback   The size to use if there is no video size of the aspect ratio.
+     * @return The largest video size of the aspect ratio up to {@link #MAX_WIDTH} x
+     * {@link #MAX_HEIGHT}.
+     */
+    static Size chooseSize(SizeMap videoSizes, AspectRatio ratio, Size fallback) {
+        final Size size = SizeSelector.select(videoSizes, ratio,
+                SizeSelector.largestWithin(MAX_WIDTH, MAX_HEIGHT));
+        return size == null ? fallback : size;
+    }
+
+    /**
+     * @return The encoder bit rate for videos of the size and frame rate, in bits per second.
+     */
+    static int chooseBitRate(Size size, int frameRate) {
+        final long bitRate = (long) size.getWidth() * size.getHeight() * frameRate / PIXELS_PER_BIT;
+        return (int) Math.max(MIN_BIT_RATE, Math.min(bitRate, Integer.MAX_VALUE));
+    }
+
+    private final MediaRecorder mRecorder = new MediaRecorder();
+
+    private final File mFile;
+
+    private boolean mStarted;
+
+    VideoRecording(File file) {
+        mFile = file;
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return The recorder. Use this to connect it to the camera before {@link #prepare}.
+     */
+    MediaRecorder getRecorder() {
+        return mRecorder;
+    }
+
+    /**
+     * Configures and prepares the recorder.
+     *
+     * @param videoSource One of the {@link MediaRecorder.VideoSource} constants.
+     * @param size        The size of the video.
+     * @param audio       {@code true} to record audio from the microphone as well.
+     * @param orientation The clockwise rotation of the video needed to play it upright.
+     */
+    void prepare(int videoSource, Size size, boolean audio, int orientation) throws IOException {
+        if (audio) {
+            mRecorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
+        }
+        mRecorder.setVideoSource(videoSource);
+        mRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+        mRecorder.setOutputFile(mFile.getAbsolutePath());
+        mRecorder.setVideoEncodingBitRate(chooseBitRate(size, FRAME_RATE));
+        mRecorder.setVideoFrameRate(FRAME_RATE);
+        mRecorder.setVideoSize(size.getWidth(), size.getHeight());
+        mRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
+        if (audio) {
+            mRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+        }
+        mRecorder.setOrientationHint(orientation);
+        mRecorder.prepare();
+    }
+
+    boolean isStarted() {
+        return mStarted;
+    }
+
+    void start() {
+        mRecorder.start();
+        mStarted = true;
+    }
+
+    /**
+     * Stops recording and releases the recorder.
+     *
+     * @return {@code true} if the file holds a valid video. Otherwise, it is deleted.
+     */
+    boolean stop() {
+        boolean valid = mStarted;
+        if (mStarted) {
+            try {
+                mRecorder.stop();
+            } catch (RuntimeException e) {
+                // Thrown if no frame was recorded
+                Log.w(TAG, "Recording stopped before any frame was recorded", e);
+                valid = false;
+            }
+            mStarted = false;
+        }
+        mRecorder.release();
+        if (!valid && mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, "Failed to delete " + mFile);
+        }
+        return valid;
+    }
+
+}
@@ -16,15 +16,20 @@
 
 package com.google.android.cameraview;
 
+import android.Manifest;
 import android.app.Activity;
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.content.res.TypedArray;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
 import android.support.v4.os.ParcelableCompat;
 import android.support.v4.os.ParcelableCompatCreatorCallbacks;
 import android.support.v4.view.ViewCompat;
@@ -34,15 +39,16 @@ import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.FrameLayout;
+import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class CameraView extends FrameLayout {
 
-    private final String TAG = CameraView.class.getSimpleName();
+    private static final String TAG = CameraView.class.getSimpleName();
 
     /** The camera device faces the opposite direction as the device's screen. */
     public static final int FACING_BACK = Constants.FACING_BACK;
@@ -62,6 +68,17 @@ public class CameraView extends FrameLayout {
     private final CallbackBridge mCallbacks;
     private final DisplayOrientationDetector mDisplayOrientationDetector;
     private CameraViewImpl mImpl;
+    private FrameListener mFrameListener;
+    private Looper mCameraLooper;
+
+    private SizePolicy mSizePolicy = SizePolicy.NONE;
+
+    private boolean mKeepPreviewRunning;
+
+    private boolean mZeroShutterLag;
+
+    /** Whether {@link #start()} was called without a matching {@link #stop()} */
+    private boolean mStarted;
 
     private PreviewOverlay mOverlay;
     private boolean mAdjustViewBounds;
@@ -152,6 +169,11 @@ public class CameraView extends FrameLayout {
             mDisplayOrientationDetector.disable();
         }
         super.onDetachedFromWindow();
+        // A view may only be detached for a while, so the camera is left running; its thread is
+        // released when the camera is idle, or by stop() otherwise
+        if (!isInEditMode() && !mStarted) {
+            mImpl.release();
+        }
 
         if (mCallbacks != null && mCallbacks.mCallbacks != null) {
             mCallbacks.mCallbacks.clear();
@@ -262,21 +284,15 @@ public class CameraView extends FrameLayout {
 
     /**
      * Open a camera device and start showing camera preview. This is typically called from
-     * {@link Activity#onResume()}.
+     * {@link Activity#onResume()}. The camera is opened on the camera thread; this returns
+     * immediately and {@link Callback#onCameraOpened(CameraView)} is called once it is open.
      */
     public void start() {
+        mStarted = true;
+        mCallbacks.onPhase(PhaseTimings.PHASE_OPEN_REQUESTED);
         try {
             if (!mImpl.start()) {
-                if (mImpl.getView() != null) {
-                    this.removeView(mImpl.getView());
-                }
-
-                //store the state ,and restore this state after fall back o Camera1
-                Parcelable state = onSaveInstanceState();
-                // Camera2 uses legacy hardware layer; fall back to Camera1
-                mImpl = new Camera1(mCallbacks, createPreviewImpl(getContext()));
-                onRestoreInstanceState(state);
-                mImpl.start();
+                fallBackToCamera1();
             }
         } catch (Exception e) {
             Log.e(TAG, e.toString());
@@ -284,12 +300,45 @@ public class CameraView extends FrameLayout {
         }
     }
 
+    /**
+     * Replaces the camera2 implementation with the camera1 one and starts it. This is needed
+     * when the camera only supports the legacy hardware level.
+     */
+    void fallBackToCamera1() {
+        if (mImpl instanceof Camera1) {
+            return;
+        }
+        if (mImpl.getView() != null) {
+            this.removeView(mImpl.getView());
+        }
+
+        //store the state ,and restore this state after fall back o Camera1
+        Parcelable state = onSaveInstanceState();
+        // Nothing is open; only its thread is left to release
+        mImpl.release();
+        // Camera2 uses legacy hardware layer; fall back to Camera1
+        mImpl = new Camera1(mCallbacks, createPreviewImpl(getContext()));
+        onRestoreInstanceState(state);
+        mImpl.setCameraLooper(mCameraLooper);
+        mImpl.setFrameListener(mFrameListener);
+        mImpl.setSizePolicy(mSizePolicy);
+        mImpl.setKeepPreviewRunning(mKeepPreviewRunning);
+        mImpl.setZeroShutterLag(mZeroShutterLag);
+        mImpl.start();
+    }
+
     /**
      * Stop camera preview and close the device. This is typically called from
-     * {@link Activity#onPause()}.
+     * {@link Activity#onPause()}. If this view is detached from the window, the camera thread is
+     * released as well; it is created again by {@link #start()}.
      */
     public void stop() {
+        mStarted = false;
         mImpl.stop();
+        if (!ViewCompat.isAttachedToWindow(this)) {
+            // The camera is closed on the camera thread before the thread quits
+            mImpl.release();
+        }
     }
 
     /**
@@ -456,11 +505,102 @@ public class CameraView extends FrameLayout {
         mImpl.setFlash(flash);
     }
 
+    /**
+     * Sets the looper that the camera is operated on. By default, {@link CameraView} uses a
+     * background thread of its own, so that a busy main thread never delays the camera. This has
+     * to be called while the camera is closed.
+     *
+     * @param looper The looper, or {@code null} to use the default background thread.
+     */
+    public void setCameraLooper(@Nullable Looper looper) {
+        mCameraLooper = looper;
+        mImpl.setCameraLooper(looper);
+    }
+
+    /**
+     * Sets a listener to receive the preview frames. Frames are delivered from a small ring of
+     * buffers that are reused, so no memory is allocated per frame.
+     *
+     * @param listener The listener, or {@code null} to stop receiving frames.
+     */
+    public void setFrameListener(@Nullable FrameListener listener) {
+        mFrameListener = listener;
+        mImpl.setFrameListener(listener);
+    }
+
+    /**
+     * Sets the policy constraining the sizes of pictures and preview frames. An open camera is
+     * reconfigured if this changes its sizes.
+     *
+     * @param policy The policy, or {@code null} for {@link SizePolicy#NONE}.
+     */
+    public void setSizePolicy(@Nullable SizePolicy policy) {
+        mSizePolicy = policy == null ? SizePolicy.NONE : policy;
+        mImpl.setSizePolicy(mSizePolicy);
+    }
+
+    /**
+     * @return The policy constraining the sizes of pictures and preview frames.
+     */
+    @NonNull
+    public SizePolicy getSizePolicy() {
+        return mSizePolicy;
+    }
+
+    /**
+     * Sets whether the preview keeps running while a picture is taken. By default, the preview
+     * stays frozen on the picture until {@link #resumePreview()} is called.
+     *
+     * <p>On API level 21 and above, the picture is then taken alongside the preview without
+     * interrupting it. Below that, the camera still stops the preview for the picture, but it is
+     * restarted as soon as the picture is taken.</p>
+     *
+     * @param keepPreviewRunning {@code true} to keep the preview running.
+     */
+    public void setKeepPreviewRunning(boolean keepPreviewRunning) {
+        mKeepPreviewRunning = keepPreviewRunning;
+        mImpl.setKeepPreviewRunning(keepPreviewRunning);
+    }
+
+    /**
+     * @return {@code true} if the preview keeps running while a picture is taken.
+     */
+    public boolean getKeepPreviewRunning() {
+        return mKeepPreviewRunning;
+    }
+
+    /**
+     * Sets whether pictures are taken without shutter lag. The camera then keeps a few of the most
+     * recent full resolution frames, and {@link #takePicture()} picks the one closest to the
+     * call, without locking the focus or running the flash sequence. The picture is encoded by
+     * the library instead of the camera, so it takes longer to be delivered, and bursts cannot be
+     * taken in this mode.
+     *
+     * <p>This requires API level 21; it is ignored below that.</p>
+     *
+     * @param zeroShutterLag {@code true} to take pictures without shutter lag.
+     */
+    public void setZeroShutterLag(boolean zeroShutterLag) {
+        mZeroShutterLag = zeroShutterLag;
+        mImpl.setZeroShutterLag(zeroShutterLag);
+    }
+
+    /**
+     * @return {@code true} if pictures are taken without shutter lag.
+     */
+    public boolean getZeroShutterLag() {
+        return mZeroShutterLag;
+    }
+
     /**
      * Take a picture. The result will be returned to
-     * {@link Callback#onPictureTaken(CameraView, byte[])}.
+     * {@link Callback#onPictureTaken(CameraView, Picture)}.
+     *
+     * <p>While a video is being recorded, this takes a snapshot of the video without interrupting
+     * it. The focus is not locked and the flash is not fired for snapshots.</p>
      */
     public void takePicture() {
+        mCallbacks.onPhase(PhaseTimings.PHASE_TAKE_PICTURE);
         try {
             mImpl.takePicture();
         } catch (Exception e) {
@@ -469,6 +609,93 @@ public class CameraView extends FrameLayout {
         }
     }
 
+    /**
+     * Start recording a video to a file while the preview keeps running. Audio is recorded as
+     * well if the app holds the {@link Manifest.permission#RECORD_AUDIO} permission. The video
+     * is up to 1080p, with the aspect ratio of the preview.
+     *
+     * <p>{@link Callback#onRecordingStarted(CameraView)} is called once the recording runs, and
+     * {@link Callback#onVideoRecorded(CameraView, File)} once it is stopped with
+     * {@link #stopRecording()} or by {@link #stop()}. While recording, preview frames are not
+     * delivered to the {@link FrameListener}, and pictures cannot be taken without shutter lag.
+     * </p>
+     *
+     * @param file The file to record to. It is replaced if it exists.
+     */
+    public void startRecording(@NonNull File file) {
+        final boolean audio = ContextCompat.checkSelfPermission(getContext(),
+                Manifest.permission.RECORD_AUDIO) == PackageManager.PERMISSION_GRANTED;
+        try {
+            mImpl.startRecording(file, audio);
+        } catch (Exception e) {
+            Log.e(TAG, e.toString());
+            mCallbacks.onRecordingFailed(e);
+        }
+    }
+
+    /**
+     * Stop recording the video started with {@link #startRecording(File)}.
+     */
+    public void stopRecording() {
+        mImpl.stopRecording();
+    }
+
+    /**
+     * @return {@code true} if a video is being recorded.
+     */
+    public boolean isRecording() {
+        return mImpl.isRecording();
+    }
+
+    /**
+     * @return {@code true} if the camera can take bursts of pictures. This requires API level 21.
+     */
+    public boolean isBurstSupported() {
+        return mImpl.isBurstSupported();
+    }
+
+    /**
+     * Take a number of pictures in quick succession without stopping the preview. Each picture
+     * is returned to {@link Callback#onPictureTaken(CameraView, Picture)}. Pictures are dropped
+     * if the app holds on to too many of them at once, so close them quickly. Bursts cannot be
+     * taken while a video is being recorded.
+     *
+     * @param count The number of pictures.
+     */
+    public void takeBurst(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Count must be positive: " + count);
+        }
+        try {
+            mImpl.takeBurst(count);
+        } catch (Exception e) {
+            Log.e(TAG, e.toString());
+            mCallbacks.onTakePictureFailed(e);
+        }
+    }
+
+    /**
+     * Take pictures repeatedly, as fast as the camera can, until {@link #stopBurst()} is called.
+     * Changing the focus, flash or zoom also stops the burst.
+     *
+     * @see #takeBurst(int)
+     */
+    public void startBurst() {
+        try {
+            mImpl.startBurst();
+        } catch (Exception e) {
+            Log.e(TAG, e.toString());
+            mCallbacks.onTakePictureFailed(e);
+        }
+    }
+
+    /**
+     * Stop taking pictures started with {@link #startBurst()}.
+     */
+    public void stopBurst() {
+        mImpl.stopBurst();
+    }
+
     /** Direction the camera faces relative to device screen. */
     @IntDef({FACING_BACK, FACING_FRONT})
     @Retention(RetentionPolicy.SOURCE)
@@ -531,7 +758,9 @@ public class CameraView extends FrameLayout {
     }
 
     /**
-     * Callback for monitoring events about {@link CameraView}.
+     * Callback for monitoring events about {@link CameraView}. Events are delivered on the main
+     * thread, except for {@link #onChoosePreviewSize} and {@link #onChoosePictureSize}, which are
+     * called on the camera thread.
      */
     @SuppressWarnings("UnusedParameters")
     public abstract static class Callback {
@@ -561,6 +790,17 @@ public class CameraView extends FrameLayout {
 
         }
 
+        /**
+         * Called when the preview of the new camera is running after a switch with
+         * {@link CameraView#setFacing(int)}. This is only reported on API level 21 and above.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param timeToFirstFrame Time from the switch request to the first preview frame of the
+         *                         new camera, in milliseconds.
+         */
+        public void onCameraSwitched(CameraView cameraView, long timeToFirstFrame) {
+        }
+
         /**
          * Called when there is no camera to open
          *
@@ -587,6 +827,23 @@ public class CameraView extends FrameLayout {
         public void onPictureTaken(CameraView cameraView, byte[] data) {
         }
 
+        /**
+         * Called when a picture is taken. Unlike {@link #onPictureTaken(CameraView, byte[])},
+         * this gives access to the JPEG data without copying it.
+         *
+         * <p>The picture is closed when this method returns. Call {@link Picture#retain()} to
+         * keep it open, and {@link Picture#close()} when you are done with it.</p>
+         *
+         * <p>The default implementation calls {@link #onPictureTaken(CameraView, byte[])}, which
+         * may need to copy the JPEG data into an array.</p>
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param picture The picture.
+         */
+        public void onPictureTaken(CameraView cameraView, Picture picture) {
+            onPictureTaken(cameraView, picture.getBytes());
+        }
+
         /**
          * Called when taking a picture has failed
          *
@@ -596,6 +853,44 @@ public class CameraView extends FrameLayout {
         public void onTakePictureFailed(CameraView cameraView, Throwable throwable) {
         }
 
+        /**
+         * Called when a video started recording.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         */
+        public void onRecordingStarted(CameraView cameraView) {
+        }
+
+        /**
+         * Called when a video was recorded.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param file       The file holding the video.
+         */
+        public void onVideoRecorded(CameraView cameraView, File file) {
+        }
+
+        /**
+         * Called when a video could not be recorded. No video file is left behind.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param throwable  The cause of the failure.
+         */
+        public void onRecordingFailed(CameraView cameraView, Throwable throwable) {
+        }
+
+        /**
+         * Called when the camera has shown its first preview frame after {@link #start()}, and
+         * when a picture has been delivered to {@link #onPictureTaken(CameraView, Picture)}, with
+         * the times at which each phase was reached. Collect these to track startup latency and
+         * shutter lag.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param timings    The timings of the startup or of the capture.
+         */
+        public void onPhaseTimings(CameraView cameraView, PhaseTimings timings) {
+        }
+
         /**
          * Called when determining what size of preview to use
          *
@@ -618,7 +913,7 @@ public class CameraView extends FrameLayout {
          * @param availableSizes A SizeMap of available sizes grouped by aspect ratio
          * @param aspectRatio The aspect ratio specified to the CameraView
          * @return The desired picture size, or null for default
-         * (highest res of that aspect ratio)
+         * (the size chosen by the {@link SizePolicy})
          */
         public Size onChoosePictureSize(CameraView cameraView, SizeMap availableSizes,
                                         AspectRatio aspectRatio) {
@@ -628,9 +923,13 @@ public class CameraView extends FrameLayout {
 
     private static class CallbackBridge implements CameraViewImpl.Callback {
 
-        private final ArrayList<Callback> mCallbacks = new ArrayList<>();
+        private final CopyOnWriteArrayList<Callback> mCallbacks = new CopyOnWriteArrayList<>();
+
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
-        private boolean mRequestLayoutOnOpen;
+        private volatile boolean mRequestLayoutOnOpen;
+
+        private final PhaseRecorder mPhaseRecorder = new PhaseRecorder();
 
         private WeakReference<CameraView> cameraView;
 
@@ -646,59 +945,195 @@ public class CameraView extends FrameLayout {
             mCallbacks.remove(callback);
         }
 
+        /**
+         * Runs the specified action on the main thread; immediately if this is the main thread.
+         */
+        private void runOnMainThread(Runnable action) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                action.run();
+            } else {
+                mMainHandler.post(action);
+            }
+        }
+
         @Override
         public void onCameraOpened() {
-            if (mRequestLayoutOnOpen) {
-                mRequestLayoutOnOpen = false;
-                if (cameraView.get() != null) {
-                    cameraView.get().requestLayout();
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mRequestLayoutOnOpen) {
+                        mRequestLayoutOnOpen = false;
+                        if (cameraView.get() != null) {
+                            cameraView.get().requestLayout();
+                        }
+                    }
+                    for (Callback callback : mCallbacks) {
+                        callback.onCameraOpened(cameraView.get());
+                    }
                 }
-            }
-            for (Callback callback : mCallbacks) {
-                callback.onCameraOpened(cameraView.get());
-            }
+            });
         }
 
         @Override
         public void onCameraClosed() {
-            for (Callback callback : mCallbacks) {
-                callback.onCameraClosed(cameraView.get());
-            }
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onCameraClosed(cameraView.get());
+                    }
+                }
+            });
         }
 
         @Override
         public void onCameraNotAvailable() {
-            for (Callback callback : mCallbacks) {
-                callback.onCameraNotAvailable(cameraView.get());
-            }
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onCameraNotAvailable(cameraView.get());
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onLegacyCamera() {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    final CameraView view = cameraView.get();
+                    if (view == null) {
+                        return;
+                    }
+                    try {
+                        view.fallBackToCamera1();
+                    } catch (Exception e) {
+                        Log.e(TAG, e.toString());
+                        onCameraNotAvailable();
+                    }
+                }
+            });
         }
 
         @Override
         public void onCameraConfigured() {
-            for (Callback callback : mCallbacks) {
-                callback.onCameraConfigured(cameraView.get());
-            }
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onCameraConfigured(cameraView.get());
+                    }
+                }
+            });
         }
 
         @Override
-        public void onFocusAt(int x, int y) {
-            for (Callback callback : mCallbacks) {
-                callback.onFocusAt(x, y);
-            }
+        public void onCameraSwitched(final long timeToFirstFrame) {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onCameraSwitched(cameraView.get(), timeToFirstFrame);
+                    }
+                }
+            });
         }
 
         @Override
-        public void onPictureTaken(byte[] data) {
-            for (Callback callback : mCallbacks) {
-                callback.onPictureTaken(cameraView.get(), data);
-            }
+        public void onFocusAt(final int x, final int y) {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onFocusAt(x, y);
+                    }
+                }
+            });
         }
 
         @Override
-        public void onTakePictureFailed(Throwable throwable) {
-            for (Callback callback : mCallbacks) {
-                callback.onTakePictureFailed(cameraView.get(), throwable);
+        public void onPictureTaken(final Picture picture) {
+            onPhase(PhaseTimings.PHASE_IMAGE_AVAILABLE);
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Callback callback : mCallbacks) {
+                            callback.onPictureTaken(cameraView.get(), picture);
+                        }
+                    } finally {
+                        picture.close();
+                    }
+                    onPhase(PhaseTimings.PHASE_CALLBACK_DELIVERED);
+                }
+            });
+        }
+
+        @Override
+        public void onTakePictureFailed(final Throwable throwable) {
+            mPhaseRecorder.cancelCapture();
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onTakePictureFailed(cameraView.get(), throwable);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onRecordingStarted() {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onRecordingStarted(cameraView.get());
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onVideoRecorded(final File file) {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onVideoRecorded(cameraView.get(), file);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onRecordingFailed(final Throwable throwable) {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onRecordingFailed(cameraView.get(), throwable);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onPhase(int phase) {
+            final PhaseTimings timings = mPhaseRecorder.record(phase, System.nanoTime());
+            if (timings == null) {
+                return;
             }
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onPhaseTimings(cameraView.get(), timings);
+                    }
+                }
+            });
         }
 
         @Override
@@ -716,7 +1151,8 @@ public class CameraView extends FrameLayout {
         }
 
         @Override
-        public Size onChoosePictureSize(SizeMap availableSizes, AspectRatio aspectRatio) {
+        public Size onChoosePictureSize(SizeMap availableSizes, Size suggestedSize,
+                AspectRatio aspectRatio) {
             for (Callback callback : mCallbacks) {
                 Size pictureSize = callback.onChoosePictureSize(cameraView.get(), availableSizes,
                         aspectRatio);
@@ -727,8 +1163,8 @@ public class CameraView extends FrameLayout {
                 }
             }
 
-            // Nobody stepped up, selected biggest size in that ratio
-            return availableSizes.sizes(aspectRatio).last();
+            // Nobody stepped up, use the size chosen by the size policy
+            return suggestedSize;
         }
 
         public void reserveRequestLayoutOnOpen() {
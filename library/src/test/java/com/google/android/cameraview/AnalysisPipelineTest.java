@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class AnalysisPipelineTest {
+
+    @Test
+    public void testKeepLatest() {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        AnalysisPipeline pipeline = new AnalysisPipeline(analyzer,
+                AnalysisPipeline.STRATEGY_KEEP_LATEST, 1, executor);
+        TestFrame frame1 = new TestFrame(1);
+        TestFrame frame2 = new TestFrame(2);
+        TestFrame frame3 = new TestFrame(3);
+        deliver(pipeline, frame1);
+        deliver(pipeline, frame2);
+        deliver(pipeline, frame3);
+        // The stale frames are released right away
+        assertThat(frame1.isClosed(), is(true));
+        assertThat(frame2.isClosed(), is(true));
+        assertThat(frame3.isClosed(), is(false));
+        assertThat(executor.size(), is(1));
+        executor.runAll();
+        assertThat(analyzer.timestamps, is(list(3)));
+        assertThat(frame3.isClosed(), is(true));
+        assertThat(pipeline.getDroppedFrameCount(), is(2L));
+    }
+
+    @Test
+    public void testQueue() {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        AnalysisPipeline pipeline = new AnalysisPipeline(analyzer,
+                AnalysisPipeline.STRATEGY_QUEUE, 2, executor);
+        TestFrame frame3 = new TestFrame(3);
+        deliver(pipeline, new TestFrame(1));
+        deliver(pipeline, new TestFrame(2));
+        deliver(pipeline, frame3);
+        // The queue is full; the new frame is dropped
+        assertThat(frame3.isClosed(), is(true));
+        executor.runAll();
+        assertThat(analyzer.timestamps, is(list(1, 2)));
+        assertThat(pipeline.getDroppedFrameCount(), is(1L));
+        // There is room again
+        deliver(pipeline, new TestFrame(4));
+        executor.runAll();
+        assertThat(analyzer.timestamps, is(list(1, 2, 4)));
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final RecordingAnalyzer analyzer = new RecordingAnalyzer() {
+            @Override
+            public void analyze(Frame frame) {
+                started.countDown();
+                try {
+                    proceed.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.analyze(frame);
+            }
+        };
+        final AnalysisPipeline pipeline = new AnalysisPipeline(analyzer,
+                AnalysisPipeline.STRATEGY_BLOCK, 1);
+        deliver(pipeline, new TestFrame(1));
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        deliver(pipeline, new TestFrame(2));
+        // The queue is full now; the next frame blocks the producer
+        final CountDownLatch delivered = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deliver(pipeline, new TestFrame(3));
+                delivered.countDown();
+            }
+        });
+        producer.start();
+        assertThat(delivered.await(100, TimeUnit.MILLISECONDS), is(false));
+        proceed.countDown();
+        assertThat(delivered.await(5, TimeUnit.SECONDS), is(true));
+        pipeline.close();
+        assertThat(pipeline.getDroppedFrameCount(), is(0L));
+    }
+
+    @Test
+    public void testClose() {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        AnalysisPipeline pipeline = new AnalysisPipeline(analyzer,
+                AnalysisPipeline.STRATEGY_QUEUE, 2, executor);
+        TestFrame frame1 = new TestFrame(1);
+        deliver(pipeline, frame1);
+        pipeline.close();
+        assertThat(frame1.isClosed(), is(true));
+        TestFrame frame2 = new TestFrame(2);
+        deliver(pipeline, frame2);
+        assertThat(frame2.isClosed(), is(true));
+        executor.runAll();
+        assertThat(analyzer.timestamps.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRetainInAnalyzer() {
+        ManualExecutor executor = new ManualExecutor();
+        final List<Frame> retained = new ArrayList<>();
+        AnalysisPipeline pipeline = new AnalysisPipeline(new FrameAnalyzer() {
+            @Override
+            public void analyze(Frame frame) {
+                retained.add(frame.retain());
+            }
+        }, AnalysisPipeline.STRATEGY_KEEP_LATEST, 1, executor);
+        TestFrame frame = new TestFrame(1);
+        deliver(pipeline, frame);
+        executor.runAll();
+        assertThat(frame.isClosed(), is(false));
+        retained.get(0).close();
+        assertThat(frame.isClosed(), is(true));
+    }
+
+    @Test
+    public void testAnalyzerError() {
+        ManualExecutor executor = new ManualExecutor();
+        final RecordingAnalyzer analyzer = new RecordingAnalyzer() {
+            @Override
+            public void analyze(Frame frame) {
+                super.analyze(frame);
+                if (frame.getTimestamp() == 1) {
+                    throw new StackOverflowError();
+                }
+            }
+        };
+        AnalysisPipeline pipeline = new AnalysisPipeline(analyzer,
+                AnalysisPipeline.STRATEGY_QUEUE, 2, executor);
+        TestFrame frame1 = new TestFrame(1);
+        deliver(pipeline, frame1);
+        deliver(pipeline, new TestFrame(2));
+        try {
+            executor.runAll();
+        } catch (StackOverflowError e) {
+            // Expected
+        }
+        assertThat(frame1.isClosed(), is(true));
+        // The waiting frame is handed to a new drain
+        executor.runAll();
+        assertThat(analyzer.timestamps, is(list(1, 2)));
+        // Later frames are still analyzed
+        deliver(pipeline, new TestFrame(3));
+        executor.runAll();
+        assertThat(analyzer.timestamps, is(list(1, 2, 3)));
+    }
+
+    /** Delivers a frame the way the camera does: it is closed after the listener returns. */
+    private static void deliver(FrameListener listener, Frame frame) {
+        try {
+            listener.onFrame(frame);
+        } finally {
+            frame.close();
+        }
+    }
+
+    private static List<Long> list(long... values) {
+        List<Long> list = new ArrayList<>();
+        for (long value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static class ManualExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        int size() {
+            return mTasks.size();
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+    }
+
+    private static class RecordingAnalyzer implements FrameAnalyzer {
+
+        final List<Long> timestamps = new ArrayList<>();
+
+        @Override
+        public void analyze(Frame frame) {
+            timestamps.add(frame.getTimestamp());
+        }
+
+    }
+
+    private static class TestFrame extends Frame {
+
+        private final long mTimestamp;
+
+        TestFrame(long timestamp) {
+            mTimestamp = timestamp;
+        }
+
+        @Override
+        public int getWidth() {
+            return 1;
+        }
+
+        @Override
+        public int getHeight() {
+            return 1;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return 1;
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return 1;
+        }
+
+        @Override
+        ByteBuffer buffer(int plane) {
+            return ByteBuffer.allocate(1);
+        }
+
+        @Override
+        void release() {
+        }
+
+    }
+
+}
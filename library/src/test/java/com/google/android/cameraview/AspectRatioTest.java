@@ -22,6 +22,8 @@ import static org.junit.Assert.assertThat;
 import org.junit.Test;
 
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class AspectRatioTest {
 
@@ -38,6 +40,61 @@ public class AspectRatioTest {
         assertThat(r.getY(), is(31));
     }
 
+    @Test
+    public void testInterned() {
+        assertThat(AspectRatio.of(4, 3) == AspectRatio.of(8, 6), is(true));
+        assertThat(AspectRatio.parse("16:9") == AspectRatio.of(1920, 1080), is(true));
+    }
+
+    @Test
+    public void testManyRatios() {
+        // More ratios than can be interned are still created and compared correctly
+        for (int x = 1; x <= 1000; x++) {
+            AspectRatio ratio = AspectRatio.of(x, 1001);
+            assertThat(ratio.getX(), is(x / gcd(x, 1001)));
+            assertThat(ratio.getY(), is(1001 / gcd(x, 1001)));
+            assertThat(ratio.equals(AspectRatio.of(x * 2, 2002)), is(true));
+        }
+    }
+
+    @Test
+    public void testConcurrentInterning() throws InterruptedException {
+        final int threadCount = 4;
+        final int ratioCount = 64;
+        final AtomicReferenceArray<AspectRatio[]> results = new AtomicReferenceArray<>(threadCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int index = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    AspectRatio[] ratios = new AspectRatio[ratioCount];
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < ratioCount; i++) {
+                        ratios[i] = AspectRatio.of(5003 + i, 7919);
+                    }
+                    results.set(index, ratios);
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < ratioCount; i++) {
+            AspectRatio expected = AspectRatio.of(5003 + i, 7919);
+            for (int t = 0; t < threadCount; t++) {
+                assertThat(results.get(t)[i].equals(expected), is(true));
+            }
+        }
+    }
+
     @Test
     public void testMatches() {
         AspectRatio ratio = AspectRatio.of(3, 4);
@@ -104,4 +161,13 @@ public class AspectRatioTest {
         AspectRatio.parse("MALFORMED");
     }
 
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int c = b;
+            b = a % b;
+            a = c;
+        }
+        return a;
+    }
+
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class ByteArrayPoolTest {
+
+    @Test
+    public void testSizeClass() {
+        assertThat(ByteArrayPool.sizeClass(1), is(4096));
+        assertThat(ByteArrayPool.sizeClass(4096), is(4096));
+        assertThat(ByteArrayPool.sizeClass(4097), is(5120));
+        assertThat(ByteArrayPool.sizeClass(8192), is(8192));
+        assertThat(ByteArrayPool.sizeClass(8193), is(10240));
+        // A 12MP JPEG
+        assertThat(ByteArrayPool.sizeClass(4900000), is(5242880));
+        for (int length = 1; length < 100000; length += 7) {
+            int size = ByteArrayPool.sizeClass(length);
+            assertThat(size >= length, is(true));
+            assertThat(size <= Math.max(4096, length * 1.25), is(true));
+            assertThat(ByteArrayPool.sizeClass(size), is(size));
+        }
+    }
+
+    @Test
+    public void testAcquire_reuse() {
+        ByteArrayPool pool = new ByteArrayPool(1024 * 1024);
+        byte[] a = pool.acquire(100000);
+        assertThat(a.length >= 100000, is(true));
+        pool.release(a);
+        assertThat(pool.getPooledBytes(), is(a.length));
+        // Slightly different length within the same size class
+        byte[] b = pool.acquire(100500);
+        assertThat(b, is(sameInstance(a)));
+        assertThat(pool.getPooledBytes(), is(0));
+    }
+
+    @Test
+    public void testRelease_bounded() {
+        ByteArrayPool pool = new ByteArrayPool(10000);
+        byte[] a = pool.acquire(8192);
+        byte[] b = pool.acquire(8192);
+        pool.release(a);
+        pool.release(b);
+        assertThat(pool.getPooledBytes(), is(8192));
+        assertThat(pool.acquire(8192), is(sameInstance(a)));
+        assertThat(pool.acquire(8192), is(not(sameInstance(b))));
+    }
+
+    @Test
+    public void testRelease_foreign() {
+        ByteArrayPool pool = new ByteArrayPool(1024 * 1024);
+        pool.release(new byte[5000]);
+        assertThat(pool.getPooledBytes(), is(0));
+    }
+
+    @Test
+    public void testClear() {
+        ByteArrayPool pool = new ByteArrayPool(1024 * 1024);
+        pool.release(pool.acquire(50000));
+        pool.clear();
+        assertThat(pool.getPooledBytes(), is(0));
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CameraCapabilitiesTest {
+
+    @After
+    public void tearDown() {
+        CameraCapabilities.clearCache();
+    }
+
+    @Test
+    public void testSetSizes_dropsRatiosWithoutPictures() {
+        SizeMap previewSizes = new SizeMap();
+        previewSizes.add(new Size(1280, 720));
+        previewSizes.add(new Size(640, 480));
+        SizeMap pictureSizes = new SizeMap();
+        pictureSizes.add(new Size(4032, 3024));
+        CameraCapabilities capabilities = new CameraCapabilities.Builder()
+                .setSizes(previewSizes, pictureSizes)
+                .build();
+        assertThat(capabilities.getPreviewSizes().ratios().size(), is(1));
+        assertThat(capabilities.getPreviewSizes().sizes(AspectRatio.of(4, 3)).first(),
+                is(new Size(640, 480)));
+        assertThat(capabilities.getPreviewSizes().isFrozen(), is(true));
+        assertThat(capabilities.getPictureSizes().isFrozen(), is(true));
+    }
+
+    @Test
+    public void testSetSizes_keepsRatiosIfNoneMatch() {
+        SizeMap previewSizes = new SizeMap();
+        previewSizes.add(new Size(1280, 720));
+        SizeMap pictureSizes = new SizeMap();
+        pictureSizes.add(new Size(4032, 3024));
+        CameraCapabilities capabilities = new CameraCapabilities.Builder()
+                .setSizes(previewSizes, pictureSizes)
+                .build();
+        assertThat(capabilities.getPreviewSizes().ratios().size(), is(1));
+    }
+
+    @Test
+    public void testCache() {
+        assertThat(CameraCapabilities.get("test/0"), is(nullValue()));
+        CameraCapabilities first = new CameraCapabilities.Builder().setMaxZoom(4.f).build();
+        assertThat(CameraCapabilities.put("test/0", first), is(sameInstance(first)));
+        // The capabilities cached first win
+        CameraCapabilities second = new CameraCapabilities.Builder().build();
+        assertThat(CameraCapabilities.put("test/0", second), is(sameInstance(first)));
+        assertThat(CameraCapabilities.get("test/0"), is(sameInstance(first)));
+        assertThat(CameraCapabilities.get("test/0").getMaxZoom(), is(4.f));
+        assertThat(CameraCapabilities.get("test/1"), is(nullValue()));
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+public class ExifTest {
+
+    /** Start of image, an empty APP0 segment, and end of image */
+    private static final byte[] JPEG = {
+            (byte) 0xff, (byte) 0xd8,
+            (byte) 0xff, (byte) 0xe0, 0, 2,
+            (byte) 0xff, (byte) 0xd9,
+    };
+
+    @Test
+    public void testOrientationFromDegrees() {
+        assertThat(Exif.orientationFromDegrees(0), is(Exif.ORIENTATION_NORMAL));
+        assertThat(Exif.orientationFromDegrees(90), is(Exif.ORIENTATION_ROTATE_90));
+        assertThat(Exif.orientationFromDegrees(180), is(Exif.ORIENTATION_ROTATE_180));
+        assertThat(Exif.orientationFromDegrees(270), is(Exif.ORIENTATION_ROTATE_270));
+        assertThat(Exif.orientationFromDegrees(-90), is(Exif.ORIENTATION_ROTATE_270));
+        assertThat(Exif.orientationFromDegrees(450), is(Exif.ORIENTATION_ROTATE_90));
+    }
+
+    @Test
+    public void testWithOrientation() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = Exif.withOrientation(bytes, Exif.ORIENTATION_ROTATE_90);
+        out.write(JPEG);
+        assertTagged(bytes.toByteArray(), Exif.ORIENTATION_ROTATE_90);
+    }
+
+    @Test
+    public void testWithOrientation_byteByByte() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = Exif.withOrientation(bytes, Exif.ORIENTATION_ROTATE_270);
+        out.write(JPEG, 0, 0);
+        for (byte b : JPEG) {
+            out.write(b);
+        }
+        assertTagged(bytes.toByteArray(), Exif.ORIENTATION_ROTATE_270);
+    }
+
+    @Test
+    public void testRead_withOrientation() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = Exif.withOrientation(bytes, Exif.ORIENTATION_ROTATE_180);
+        out.write(JPEG);
+        Exif.Metadata metadata = Exif.read(ByteBuffer.wrap(bytes.toByteArray()));
+        assertThat(metadata.getOrientation(), is(Exif.ORIENTATION_ROTATE_180));
+        assertThat(metadata.getOrientationPosition(), is(30));
+        assertThat(metadata.getByteOrder(), is(ByteOrder.BIG_ENDIAN));
+        assertThat(metadata.hasThumbnail(), is(false));
+    }
+
+    @Test
+    public void testRead_thumbnail() {
+        byte[] jpeg = createJpegWithThumbnail();
+        // The image does not have to start at the beginning of the buffer
+        ByteBuffer buffer = ByteBuffer.allocate(jpeg.length + 3);
+        buffer.position(3);
+        buffer.put(jpeg);
+        buffer.position(3);
+        Exif.Metadata metadata = Exif.read(buffer);
+        assertThat(buffer.position(), is(3));
+        assertThat(metadata.getOrientation(), is(Exif.ORIENTATION_ROTATE_90));
+        assertThat(metadata.getOrientationPosition(), is(34));
+        assertThat(metadata.getByteOrder(), is(ByteOrder.LITTLE_ENDIAN));
+        assertThat(metadata.hasThumbnail(), is(true));
+        assertThat(metadata.getThumbnailPosition(), is(72));
+        assertThat(metadata.getThumbnailLength(), is(4));
+    }
+
+    @Test
+    public void testRead_noExif() {
+        Exif.Metadata metadata = Exif.read(ByteBuffer.wrap(JPEG));
+        assertThat(metadata.getOrientation(), is(Exif.ORIENTATION_UNDEFINED));
+        assertThat(metadata.getOrientationPosition(), is(-1));
+        assertThat(metadata.hasThumbnail(), is(false));
+    }
+
+    @Test
+    public void testRead_truncated() {
+        byte[] jpeg = createJpegWithThumbnail();
+        Exif.Metadata metadata = Exif.read(ByteBuffer.wrap(jpeg, 0, 40));
+        assertThat(metadata.getOrientation(), is(Exif.ORIENTATION_UNDEFINED));
+        assertThat(metadata.hasThumbnail(), is(false));
+    }
+
+    @Test
+    public void testDegreesFromOrientation() {
+        assertThat(Exif.degreesFromOrientation(Exif.ORIENTATION_NORMAL), is(0));
+        assertThat(Exif.degreesFromOrientation(Exif.ORIENTATION_ROTATE_90), is(90));
+        assertThat(Exif.degreesFromOrientation(Exif.ORIENTATION_ROTATE_180), is(180));
+        assertThat(Exif.degreesFromOrientation(Exif.ORIENTATION_ROTATE_270), is(270));
+        assertThat(Exif.degreesFromOrientation(Exif.ORIENTATION_UNDEFINED), is(0));
+    }
+
+    /**
+     * @return An image with an APP0 segment, followed by a little-endian EXIF segment with the
+     * orientation in IFD0 and a 4-byte thumbnail described by IFD1.
+     */
+    private static byte[] createJpegWithThumbnail() {
+        ByteBuffer tiff = ByteBuffer.allocate(60).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        // IFD0
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1)
+                .putShort((short) Exif.ORIENTATION_ROTATE_90).putShort((short) 0);
+        tiff.putInt(26);
+        // IFD1
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(56);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(4);
+        tiff.putInt(0);
+        // Thumbnail
+        tiff.put((byte) 0xff).put((byte) 0xd8).put((byte) 0xff).put((byte) 0xd9);
+        ByteBuffer jpeg = ByteBuffer.allocate(16 + 60 + 2);
+        jpeg.put(Arrays.copyOfRange(JPEG, 0, 6));
+        jpeg.put((byte) 0xff).put((byte) 0xe1).putShort((short) (2 + 6 + 60));
+        jpeg.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        jpeg.put(tiff.array());
+        jpeg.put((byte) 0xff).put((byte) 0xd9);
+        return jpeg.array();
+    }
+
+    private static void assertTagged(byte[] tagged, int orientation) {
+        // Start of image
+        assertThat(tagged[0], is((byte) 0xff));
+        assertThat(tagged[1], is((byte) 0xd8));
+        // APP1 with its length
+        assertThat(tagged[2], is((byte) 0xff));
+        assertThat(tagged[3], is((byte) 0xe1));
+        int length = ((tagged[4] & 0xff) << 8) | (tagged[5] & 0xff);
+        assertThat(new String(tagged, 6, 4), is("Exif"));
+        // The orientation entry in IFD0
+        assertThat(tagged[22], is((byte) 0x01));
+        assertThat(tagged[23], is((byte) 0x12));
+        assertThat(tagged[31], is((byte) orientation));
+        // The rest of the image follows the segment
+        int rest = 4 + length;
+        assertThat(Arrays.copyOfRange(tagged, rest, tagged.length),
+                is(Arrays.copyOfRange(JPEG, 2, JPEG.length)));
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+public class JpegOrientationTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    @After
+    public void tearDown() {
+        JpegOrientation.clearCache();
+    }
+
+    @Test
+    public void testTagged() throws IOException {
+        // The camera only set the tag, as it should
+        Picture picture = Picture.wrap(jpeg(WIDTH, HEIGHT, Exif.ORIENTATION_ROTATE_90));
+        Picture result = new JpegOrientation("a").normalize(picture, 90, WIDTH, HEIGHT);
+        assertThat(result, is(sameInstance(picture)));
+        assertThat(orientation(result), is(Exif.ORIENTATION_ROTATE_90));
+    }
+
+    @Test
+    public void testRotatedAndTagged() throws IOException {
+        // The camera rotated the pixels, but left the tag; the tag is patched in place
+        Picture picture = Picture.wrap(jpeg(HEIGHT, WIDTH, Exif.ORIENTATION_ROTATE_90));
+        Picture result = new JpegOrientation("a").normalize(picture, 90, WIDTH, HEIGHT);
+        assertThat(result, is(sameInstance(picture)));
+        assertThat(orientation(result), is(Exif.ORIENTATION_NORMAL));
+    }
+
+    @Test
+    public void testRotatedAndUntagged() throws IOException {
+        Picture picture = Picture.wrap(jpeg(HEIGHT, WIDTH, Exif.ORIENTATION_UNDEFINED));
+        Picture result = new JpegOrientation("a").normalize(picture, 270, WIDTH, HEIGHT);
+        assertThat(result, is(sameInstance(picture)));
+        assertThat(orientation(result), is(Exif.ORIENTATION_UNDEFINED));
+    }
+
+    @Test
+    public void testUntagged() throws IOException {
+        // The camera did neither; the tag is added to a copy
+        Picture picture = Picture.wrap(jpeg(WIDTH, HEIGHT, Exif.ORIENTATION_UNDEFINED));
+        Picture result = new JpegOrientation("a").normalize(picture, 270, WIDTH, HEIGHT);
+        assertThat(result, is(not(sameInstance(picture))));
+        assertThat(picture.isClosed(), is(true));
+        assertThat(orientation(result), is(Exif.ORIENTATION_ROTATE_270));
+        Exif.Metadata metadata = Exif.read(result.getBuffer());
+        assertThat(metadata.getWidth(), is(WIDTH));
+        assertThat(metadata.getHeight(), is(HEIGHT));
+    }
+
+    @Test
+    public void testReadOnly() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(
+                jpeg(HEIGHT, WIDTH, Exif.ORIENTATION_ROTATE_90)).asReadOnlyBuffer();
+        Picture picture = new Picture() {
+            @Override
+            ByteBuffer buffer() {
+                return buffer;
+            }
+
+            @Override
+            void release() {
+            }
+        };
+        Picture result = new JpegOrientation("a").normalize(picture, 90, WIDTH, HEIGHT);
+        assertThat(picture.isClosed(), is(true));
+        assertThat(orientation(result), is(Exif.ORIENTATION_NORMAL));
+    }
+
+    @Test
+    public void testCached() throws IOException {
+        JpegOrientation orientation = new JpegOrientation("a");
+        // The size of pictures rotated by 180 degrees does not tell anything
+        Picture picture = Picture.wrap(jpeg(WIDTH, HEIGHT, Exif.ORIENTATION_ROTATE_180));
+        assertThat(orientation(orientation.normalize(picture, 180, WIDTH, HEIGHT)),
+                is(Exif.ORIENTATION_ROTATE_180));
+        // Once the camera is known to rotate the pixels, the tag is fixed
+        orientation.normalize(Picture.wrap(jpeg(HEIGHT, WIDTH, Exif.ORIENTATION_ROTATE_90)),
+                90, WIDTH, HEIGHT);
+        picture = Picture.wrap(jpeg(WIDTH, HEIGHT, Exif.ORIENTATION_ROTATE_180));
+        assertThat(orientation(orientation.normalize(picture, 180, WIDTH, HEIGHT)),
+                is(Exif.ORIENTATION_NORMAL));
+        // The cache is per camera
+        picture = Picture.wrap(jpeg(WIDTH, HEIGHT, Exif.ORIENTATION_ROTATE_180));
+        assertThat(orientation(new JpegOrientation("b").normalize(picture, 180, WIDTH, HEIGHT)),
+                is(Exif.ORIENTATION_ROTATE_180));
+    }
+
+    private static int orientation(Picture picture) {
+        return Exif.read(picture.getBuffer()).getOrientation();
+    }
+
+    /**
+     * @return A JPEG image with a frame header of the size, tagged with the orientation unless it
+     * is {@link Exif#ORIENTATION_UNDEFINED}.
+     */
+    private static byte[] jpeg(int width, int height, int orientation) throws IOException {
+        byte[] image = {
+                (byte) 0xff, (byte) 0xd8,
+                (byte) 0xff, (byte) 0xc0, 0, 11, 8,
+                (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width,
+                1, 1, 0x11, 0,
+                (byte) 0xff, (byte) 0xd9,
+        };
+        if (orientation == Exif.ORIENTATION_UNDEFINED) {
+            return image;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = Exif.withOrientation(bytes, orientation);
+        out.write(image);
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class PhaseRecorderTest {
+
+    @Test
+    public void testStartup() {
+        PhaseRecorder recorder = new PhaseRecorder();
+        assertThat(recorder.record(PhaseTimings.PHASE_OPEN_REQUESTED, 100), is(nullValue()));
+        assertThat(recorder.record(PhaseTimings.PHASE_OPENED, 300), is(nullValue()));
+        assertThat(recorder.record(PhaseTimings.PHASE_SESSION_CONFIGURED, 400), is(nullValue()));
+        // Only the first time a phase is reached counts
+        assertThat(recorder.record(PhaseTimings.PHASE_SESSION_CONFIGURED, 450), is(nullValue()));
+        PhaseTimings timings = recorder.record(PhaseTimings.PHASE_FIRST_FRAME, 500);
+        assertThat(timings, is(notNullValue()));
+        assertThat(timings.isStartup(), is(true));
+        assertThat(timings.getTime(PhaseTimings.PHASE_SESSION_CONFIGURED), is(400L));
+        assertThat(timings.getDuration(PhaseTimings.PHASE_OPENED,
+                PhaseTimings.PHASE_FIRST_FRAME), is(200L));
+        assertThat(timings.getTotalDuration(), is(400L));
+        assertThat(timings.hasReached(PhaseTimings.PHASE_TAKE_PICTURE), is(false));
+        // The startup is over
+        assertThat(recorder.record(PhaseTimings.PHASE_FIRST_FRAME, 600), is(nullValue()));
+    }
+
+    @Test
+    public void testCapture() {
+        PhaseRecorder recorder = new PhaseRecorder();
+        // Phases outside of a capture are ignored
+        assertThat(recorder.record(PhaseTimings.PHASE_FOCUS_LOCKED, 50), is(nullValue()));
+        assertThat(recorder.record(PhaseTimings.PHASE_CALLBACK_DELIVERED, 60), is(nullValue()));
+        recorder.record(PhaseTimings.PHASE_TAKE_PICTURE, 100);
+        recorder.record(PhaseTimings.PHASE_FOCUS_LOCKED, 200);
+        recorder.record(PhaseTimings.PHASE_CAPTURE_COMPLETED, 300);
+        recorder.record(PhaseTimings.PHASE_IMAGE_AVAILABLE, 400);
+        PhaseTimings timings = recorder.record(PhaseTimings.PHASE_CALLBACK_DELIVERED, 450);
+        assertThat(timings.isStartup(), is(false));
+        assertThat(timings.getTime(PhaseTimings.PHASE_FOCUS_LOCKED), is(200L));
+        assertThat(timings.hasReached(PhaseTimings.PHASE_PRECAPTURE_DONE), is(false));
+        assertThat(timings.getDuration(PhaseTimings.PHASE_PRECAPTURE_DONE,
+                PhaseTimings.PHASE_CAPTURE_COMPLETED), is(-1L));
+        assertThat(timings.getTotalDuration(), is(350L));
+    }
+
+    @Test
+    public void testCancelCapture() {
+        PhaseRecorder recorder = new PhaseRecorder();
+        recorder.record(PhaseTimings.PHASE_TAKE_PICTURE, 100);
+        recorder.cancelCapture();
+        assertThat(recorder.record(PhaseTimings.PHASE_CALLBACK_DELIVERED, 200), is(nullValue()));
+    }
+
+    @Test
+    public void testRestart() {
+        PhaseRecorder recorder = new PhaseRecorder();
+        recorder.record(PhaseTimings.PHASE_OPEN_REQUESTED, 100);
+        recorder.record(PhaseTimings.PHASE_OPENED, 200);
+        // A startup and a capture are independent
+        recorder.record(PhaseTimings.PHASE_TAKE_PICTURE, 250);
+        recorder.record(PhaseTimings.PHASE_OPEN_REQUESTED, 300);
+        PhaseTimings timings = recorder.record(PhaseTimings.PHASE_FIRST_FRAME, 400);
+        assertThat(timings.hasReached(PhaseTimings.PHASE_OPENED), is(false));
+        assertThat(timings.hasReached(PhaseTimings.PHASE_TAKE_PICTURE), is(false));
+        assertThat(timings.getTotalDuration(), is(100L));
+    }
+
+}
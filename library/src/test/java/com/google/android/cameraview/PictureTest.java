@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class PictureTest {
+
+    @Test
+    public void testWrap() {
+        byte[] data = {1, 2, 3};
+        Picture picture = Picture.wrap(data);
+        assertThat(picture.getLength(), is(3));
+        assertThat(picture.getBytes(), is(sameInstance(data)));
+        ByteBuffer buffer = picture.getBuffer();
+        assertThat(buffer.isReadOnly(), is(true));
+        assertThat(buffer.remaining(), is(3));
+        assertThat(buffer.get(2), is((byte) 3));
+    }
+
+    @Test
+    public void testGetBytes_copy() {
+        TestPicture picture = new TestPicture(new byte[]{4, 5});
+        byte[] bytes = picture.getBytes();
+        assertThat(bytes.length, is(2));
+        assertThat(bytes[1], is((byte) 5));
+        assertThat(picture.getBytes(), is(sameInstance(bytes)));
+        // The source buffer is left untouched
+        assertThat(picture.getLength(), is(2));
+    }
+
+    @Test
+    public void testCopyOf() {
+        ByteArrayPool pool = new ByteArrayPool(1024 * 1024);
+        ByteBuffer source = ByteBuffer.wrap(new byte[]{6, 7, 8});
+        Picture picture = Picture.copyOf(source, pool);
+        assertThat(source.remaining(), is(3));
+        assertThat(picture.getLength(), is(3));
+        assertThat(picture.getBuffer().get(1), is((byte) 7));
+        byte[] bytes = picture.getBytes();
+        assertThat(bytes.length, is(3));
+        assertThat(pool.getPooledBytes(), is(0));
+        picture.close();
+        assertThat(pool.getPooledBytes(), is(ByteArrayPool.sizeClass(3)));
+        // The array obtained before closing the picture is not recycled
+        assertThat(bytes[2], is((byte) 8));
+    }
+
+    @Test
+    public void testWrapPooled_exactLength() {
+        ByteArrayPool pool = new ByteArrayPool(1024 * 1024);
+        byte[] array = pool.acquire(4096);
+        Picture picture = Picture.wrap(array, 4096, pool);
+        assertThat(picture.getBytes(), is(sameInstance(array)));
+        picture.close();
+        // The app owns the array now
+        assertThat(pool.getPooledBytes(), is(0));
+    }
+
+    @Test
+    public void testRetain() {
+        TestPicture picture = new TestPicture(new byte[1]);
+        picture.retain();
+        picture.close();
+        assertThat(picture.isClosed(), is(false));
+        assertThat(picture.released, is(0));
+        picture.close();
+        assertThat(picture.isClosed(), is(true));
+        assertThat(picture.released, is(1));
+        picture.close();
+        assertThat(picture.released, is(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRetain_closed() {
+        Picture picture = new TestPicture(new byte[1]);
+        picture.close();
+        picture.retain();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetBuffer_closed() {
+        Picture picture = new TestPicture(new byte[1]);
+        picture.close();
+        picture.getBuffer();
+    }
+
+    private static class TestPicture extends Picture {
+
+        private final ByteBuffer mBuffer;
+
+        int released;
+
+        TestPicture(byte[] data) {
+            mBuffer = ByteBuffer.allocateDirect(data.length);
+            mBuffer.put(data);
+            mBuffer.flip();
+        }
+
+        @Override
+        ByteBuffer buffer() {
+            return mBuffer;
+        }
+
+        @Override
+        void release() {
+            released++;
+        }
+
+    }
+
+}
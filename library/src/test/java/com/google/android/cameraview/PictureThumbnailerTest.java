@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class PictureThumbnailerTest {
+
+    @Test
+    public void testComputeSampleSize() {
+        // A 12 MP picture is decoded 500 pixels wide instead of 4000
+        assertThat(PictureThumbnailer.computeSampleSize(4000, 3000, 256), is(8));
+        assertThat(PictureThumbnailer.computeSampleSize(3000, 4000, 256), is(8));
+        assertThat(PictureThumbnailer.computeSampleSize(4000, 3000, 250), is(16));
+        // Images smaller than the thumbnail are not subsampled
+        assertThat(PictureThumbnailer.computeSampleSize(160, 120, 256), is(1));
+    }
+
+}
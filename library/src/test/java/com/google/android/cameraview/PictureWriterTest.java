@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class PictureWriterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testWrite() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        PictureWriter writer = new PictureWriter(2, executor);
+        Picture picture1 = Picture.wrap(bytes(1000, 1));
+        Picture picture2 = Picture.wrap(bytes(2000, 2));
+        File file1 = mFolder.newFile();
+        File file2 = new File(mFolder.getRoot(), "2.jpg");
+        assertThat(writer.write(picture1, file1, listener), is(true));
+        assertThat(writer.write(picture2, file2, listener), is(true));
+        // The caller can close the pictures; they are retained until written
+        picture1.close();
+        picture2.close();
+        assertThat(picture1.isClosed(), is(false));
+        // A single drain writes both
+        assertThat(executor.size(), is(1));
+        executor.runAll();
+        assertThat(picture1.isClosed(), is(true));
+        assertThat(picture2.isClosed(), is(true));
+        assertThat(read(file1), is(bytes(1000, 1)));
+        assertThat(read(file2), is(bytes(2000, 2)));
+        assertThat(listener.mWritten.size(), is(2));
+        assertThat(listener.mFailed.size(), is(0));
+        assertThat(writer.getPictureCount(), is(2L));
+        assertThat(writer.getByteCount(), is(3000L));
+        writer.close();
+    }
+
+    @Test
+    public void testCapacity() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        PictureWriter writer = new PictureWriter(1, executor);
+        Picture picture = Picture.wrap(bytes(10, 1));
+        assertThat(writer.write(picture, mFolder.newFile(), null), is(true));
+        // The writer is full
+        assertThat(writer.write(picture, mFolder.newFile(), null), is(false));
+        executor.runAll();
+        assertThat(writer.write(picture, mFolder.newFile(), null), is(true));
+        executor.runAll();
+        assertThat(writer.getPictureCount(), is(2L));
+        writer.close();
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        PictureWriter writer = new PictureWriter(1, executor);
+        Picture picture = Picture.wrap(bytes(10, 1));
+        // A directory cannot be written to
+        File file = mFolder.newFolder();
+        writer.write(picture, file, listener);
+        picture.close();
+        executor.runAll();
+        assertThat(picture.isClosed(), is(true));
+        assertThat(listener.mFailed.size(), is(1));
+        assertThat(writer.getPictureCount(), is(0L));
+        writer.close();
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener();
+        PictureWriter writer = new PictureWriter(1, executor);
+        Picture picture = Picture.wrap(bytes(10, 1));
+        writer.write(picture, mFolder.newFile(), listener);
+        picture.close();
+        writer.close();
+        // Waiting pictures are dropped
+        assertThat(picture.isClosed(), is(true));
+        assertThat(writer.write(Picture.wrap(bytes(10, 1)), mFolder.newFile(), null), is(false));
+        executor.runAll();
+        assertThat(listener.mWritten.size(), is(0));
+    }
+
+    @Test
+    public void testListenerError() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        final PictureWriter writer = new PictureWriter(1, executor);
+        final Picture picture2 = Picture.wrap(bytes(10, 2));
+        final File file2 = mFolder.newFile();
+        final RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onPictureWritten(File file) {
+                super.onPictureWritten(file);
+                if (file != file2) {
+                    // Another picture arrives, then the listener fails
+                    writer.write(picture2, file2, this);
+                    picture2.close();
+                    throw new StackOverflowError();
+                }
+            }
+        };
+        writer.write(Picture.wrap(bytes(10, 1)), mFolder.newFile(), listener);
+        try {
+            executor.runAll();
+        } catch (StackOverflowError e) {
+            // Expected
+        }
+        // The waiting picture is handed to a new drain
+        executor.runAll();
+        assertThat(picture2.isClosed(), is(true));
+        assertThat(listener.mWritten.size(), is(2));
+        assertThat(read(file2), is(bytes(10, 2)));
+        writer.close();
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * seed);
+        }
+        return bytes;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static class ManualExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        int size() {
+            return mTasks.size();
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+    }
+
+    private static class RecordingListener implements PictureWriter.Listener {
+
+        final List<File> mWritten = new ArrayList<>();
+
+        final List<File> mFailed = new ArrayList<>();
+
+        @Override
+        public void onPictureWritten(File file) {
+            mWritten.add(file);
+        }
+
+        @Override
+        public void onWriteFailed(File file, IOException e) {
+            mFailed.add(file);
+        }
+
+    }
+
+}
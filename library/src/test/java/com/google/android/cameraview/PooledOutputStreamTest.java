@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class PooledOutputStreamTest {
+
+    @Test
+    public void testToPicture() {
+        ByteArrayPool pool = new ByteArrayPool(1024 * 1024);
+        PooledOutputStream out = new PooledOutputStream(pool, 100);
+        out.write(1);
+        out.write(new byte[]{2, 3, 4}, 1, 2);
+        assertThat(out.size(), is(3));
+        Picture picture = out.toPicture();
+        ByteBuffer buffer = picture.getBuffer();
+        assertThat(buffer.remaining(), is(3));
+        assertThat(buffer.get(0), is((byte) 1));
+        assertThat(buffer.get(2), is((byte) 4));
+        // The picture owns the array now
+        out.close();
+        assertThat(pool.getPooledBytes(), is(0));
+        picture.close();
+        assertThat(pool.getPooledBytes(), is(ByteArrayPool.sizeClass(100)));
+    }
+
+    @Test
+    public void testWrite_grows() {
+        ByteArrayPool pool = new ByteArrayPool(1024 * 1024);
+        PooledOutputStream out = new PooledOutputStream(pool, 10);
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        out.write(data, 0, 3000);
+        out.write(data, 3000, 7000);
+        // The smaller array went back to the pool
+        assertThat(pool.getPooledBytes(), is(ByteArrayPool.sizeClass(10)));
+        Picture picture = out.toPicture();
+        assertThat(picture.getLength(), is(10000));
+        assertThat(picture.getBuffer().get(9999), is((byte) 9999));
+        picture.close();
+    }
+
+    @Test
+    public void testClose() {
+        ByteArrayPool pool = new ByteArrayPool(1024 * 1024);
+        PooledOutputStream out = new PooledOutputStream(pool, 5000);
+        out.write(1);
+        out.close();
+        out.close();
+        assertThat(pool.getPooledBytes(), is(ByteArrayPool.sizeClass(5000)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrite_afterToPicture() {
+        PooledOutputStream out = new PooledOutputStream(new ByteArrayPool(1024 * 1024), 10);
+        out.toPicture();
+        out.write(1);
+    }
+
+}
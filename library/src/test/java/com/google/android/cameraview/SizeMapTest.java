@@ -18,6 +18,7 @@ package com.google.android.cameraview;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import org.junit.Test;
 
@@ -52,4 +53,33 @@ public class SizeMapTest {
         assertThat(map.ratios().size(), is(0));
     }
 
+    @Test
+    public void testFreeze() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(3, 4));
+        map.freeze();
+        assertThat(map.isFrozen(), is(true));
+        AspectRatio ratio = AspectRatio.of(3, 4);
+        assertThat(map.sizes(ratio).size(), is(1));
+        try {
+            map.add(new Size(6, 8));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            map.ratios().remove(ratio);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            map.sizes(ratio).clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertThat(map.sizes(ratio).size(), is(1));
+    }
+
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class SizePolicyTest {
+
+    private static final AspectRatio RATIO_4_3 = AspectRatio.of(4, 3);
+
+    /** A 1080p frame in YUV 4:2:0 */
+    private static final long BYTES_1080P = 1920 * 1080 * 3 / 2;
+
+    @Test
+    public void testNone() {
+        SizeMap sizes = sizeMap();
+        assertThat(SizeSelector.select(sizes, RATIO_4_3, SizePolicy.NONE.pictureStrategy()),
+                is(new Size(4032, 3024)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizePolicy.NONE.previewStrategy(1920, 1080)), is(new Size(1920, 1440)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizePolicy.NONE.frameStrategy(new Size(1440, 1080))), is(new Size(1440, 1080)));
+        assertThat(SizePolicy.NONE.getConsumerSize(), is(nullValue()));
+    }
+
+    @Test
+    public void testTargetMegapixels() {
+        SizePolicy policy = new SizePolicy.Builder().setTargetMegapixels(2.f).build();
+        assertThat(SizeSelector.select(sizeMap(), RATIO_4_3, policy.pictureStrategy()),
+                is(new Size(1600, 1200)));
+    }
+
+    @Test
+    public void testMaxBytesPerFrame() {
+        SizePolicy policy = new SizePolicy.Builder().setMaxBytesPerFrame(BYTES_1080P).build();
+        SizeMap sizes = sizeMap();
+        assertThat(SizeSelector.select(sizes, RATIO_4_3, policy.pictureStrategy()),
+                is(new Size(1600, 1200)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3, policy.previewStrategy(1920, 1080)),
+                is(new Size(1600, 1200)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3, policy.previewStrategy(800, 600)),
+                is(new Size(800, 600)));
+    }
+
+    @Test
+    public void testConsumerSize() {
+        // The orientation of the consumer size does not matter
+        SizePolicy policy = new SizePolicy.Builder().setConsumerSize(900, 1200).build();
+        SizeMap sizes = sizeMap();
+        assertThat(policy.getConsumerSize(), is(new Size(1200, 900)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3, policy.pictureStrategy()),
+                is(new Size(1280, 960)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                policy.frameStrategy(new Size(1920, 1440))), is(new Size(1280, 960)));
+    }
+
+    @Test
+    public void testConsumerSizeOverMegapixels() {
+        SizePolicy policy = new SizePolicy.Builder()
+                .setTargetMegapixels(12.f)
+                .setConsumerSize(640, 480)
+                .build();
+        assertThat(SizeSelector.select(sizeMap(), RATIO_4_3, policy.pictureStrategy()),
+                is(new Size(640, 480)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConsumerSize() {
+        new SizePolicy.Builder().setConsumerSize(640, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMegapixels() {
+        new SizePolicy.Builder().setTargetMegapixels(-1.f);
+    }
+
+    private static SizeMap sizeMap() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(4032, 3024));
+        map.add(new Size(2592, 1944));
+        map.add(new Size(1920, 1440));
+        map.add(new Size(1600, 1200));
+        map.add(new Size(1440, 1080));
+        map.add(new Size(1280, 960));
+        map.add(new Size(800, 600));
+        map.add(new Size(640, 480));
+        map.freeze();
+        return map;
+    }
+
+}
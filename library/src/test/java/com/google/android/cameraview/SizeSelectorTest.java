@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class SizeSelectorTest {
+
+    /** Preview sizes as reported by a Camera1 device */
+    private static final int[] CAMERA1_PREVIEW_SIZES = {
+            1920, 1080, 1440, 1080, 1280, 960, 1280, 768, 1280, 720, 1024, 768, 800, 600,
+            800, 480, 720, 480, 640, 480, 352, 288, 320, 240, 176, 144,
+    };
+
+    /** Output sizes as reported by a Camera2 device with a 12 megapixel sensor */
+    private static final int[] CAMERA2_OUTPUT_SIZES = {
+            4032, 3024, 4000, 3000, 3840, 2160, 3288, 2480, 3200, 2400, 2592, 1944, 2688, 1512,
+            2048, 1536, 1920, 1080, 1600, 1200, 1440, 1080, 1280, 960, 1280, 768, 1280, 720,
+            1024, 768, 800, 600, 864, 480, 800, 480, 720, 480, 640, 480, 480, 640, 640, 360,
+            352, 288, 320, 240, 176, 144, 160, 120,
+    };
+
+    private static final AspectRatio RATIO_4_3 = AspectRatio.of(4, 3);
+
+    private static final AspectRatio RATIO_16_9 = AspectRatio.of(16, 9);
+
+    /** The frame duration of 30 frames per second */
+    private static final long DURATION_30FPS = 33333333L;
+
+    /** The frame duration of 15 frames per second */
+    private static final long DURATION_15FPS = 66666666L;
+
+    @Test
+    public void testSmallestCovering_camera1() {
+        SizeMap sizes = sizeMap(CAMERA1_PREVIEW_SIZES);
+        assertThat(SizeSelector.select(sizes, RATIO_16_9,
+                SizeSelector.smallestCovering(1920, 1080)), is(new Size(1920, 1080)));
+        assertThat(SizeSelector.select(sizes, RATIO_16_9,
+                SizeSelector.smallestCovering(1200, 700)), is(new Size(1280, 720)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.smallestCovering(1920, 1440)), is(new Size(1440, 1080)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.smallestCovering(0, 0)), is(new Size(320, 240)));
+    }
+
+    @Test
+    public void testSmallestCovering_camera2() {
+        SizeMap sizes = sizeMap(CAMERA2_OUTPUT_SIZES);
+        assertThat(SizeSelector.select(sizes, RATIO_16_9,
+                SizeSelector.smallestCovering(1920, 1080)), is(new Size(1920, 1080)));
+        assertThat(SizeSelector.select(sizes, RATIO_16_9,
+                SizeSelector.smallestCovering(2560, 1440)), is(new Size(2688, 1512)));
+        assertThat(SizeSelector.select(sizes, RATIO_16_9,
+                SizeSelector.smallestCovering(5000, 5000)), is(new Size(3840, 2160)));
+    }
+
+    @Test
+    public void testSmallestCovering_noSizes() {
+        SizeMap sizes = sizeMap(CAMERA1_PREVIEW_SIZES);
+        assertThat(SizeSelector.select(sizes, AspectRatio.of(1, 1),
+                SizeSelector.smallestCovering(1, 1)), is(nullValue()));
+    }
+
+    @Test
+    public void testSmallestCovering_notFrozen() {
+        SizeMap sizes = new SizeMap();
+        sizes.add(new Size(640, 480));
+        sizes.add(new Size(1280, 960));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.smallestCovering(800, 600)), is(new Size(1280, 960)));
+    }
+
+    @Test
+    public void testLargestWithin() {
+        SizeMap sizes = sizeMap(CAMERA2_OUTPUT_SIZES);
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.largestWithin(1920, 1080)), is(new Size(1440, 1080)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.largestWithin(1600, 1199)), is(new Size(1440, 1080)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.largestWithin(10000, 10000)), is(new Size(4032, 3024)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.largestWithin(1, 1)), is(new Size(160, 120)));
+    }
+
+    @Test
+    public void testClosestArea() {
+        SizeMap sizes = sizeMap(CAMERA2_OUTPUT_SIZES);
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.closestArea(4000, 3000)), is(new Size(4000, 3000)));
+        // 2 megapixels
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.closestArea(1632, 1224)), is(new Size(1600, 1200)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.closestArea(1, 1)), is(new Size(160, 120)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.closestArea(8000, 6000)), is(new Size(4032, 3024)));
+    }
+
+    @Test
+    public void testCoveringAtFrameRate() {
+        SizeMap sizes = new SizeMap();
+        for (Size size : sizes(CAMERA2_OUTPUT_SIZES)) {
+            sizes.add(size);
+            // Sizes beyond 1080p only reach 15 frames per second
+            sizes.setMinFrameDuration(size, size.getWidth() * size.getHeight() > 1920 * 1080
+                    ? DURATION_15FPS : DURATION_30FPS);
+        }
+        sizes.freeze();
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.coveringAtFrameRate(1280, 960, 30)), is(new Size(1280, 960)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.coveringAtFrameRate(2592, 1944, 30)), is(new Size(1600, 1200)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.coveringAtFrameRate(2592, 1944, 15)), is(new Size(2592, 1944)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.coveringAtFrameRate(2592, 1944, 60)), is(new Size(160, 120)));
+    }
+
+    @Test
+    public void testLargestAtFrameRate() {
+        SizeMap sizes = new SizeMap();
+        for (Size size : sizes(CAMERA2_OUTPUT_SIZES)) {
+            sizes.add(size);
+            sizes.setMinFrameDuration(size, size.getWidth() * size.getHeight() > 1920 * 1080
+                    ? DURATION_15FPS : DURATION_30FPS);
+        }
+        sizes.freeze();
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.largestAtFrameRate(30)), is(new Size(1600, 1200)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.largestAtFrameRate(15)), is(new Size(4032, 3024)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.largestAtFrameRate(60)), is(new Size(160, 120)));
+    }
+
+    @Test
+    public void testCoveringAtFrameRate_unknownDurations() {
+        SizeMap sizes = sizeMap(CAMERA2_OUTPUT_SIZES);
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.coveringAtFrameRate(2592, 1944, 60)), is(new Size(2592, 1944)));
+    }
+
+    @Test
+    public void testCoveringWithinBandwidth() {
+        SizeMap sizes = sizeMap(CAMERA2_OUTPUT_SIZES);
+        // A 1080p NV21 frame
+        long maxBytes = 1920 * 1080 * 12 / 8;
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.coveringWithinBandwidth(4032, 3024, maxBytes, 12)),
+                is(new Size(1600, 1200)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.coveringWithinBandwidth(1024, 768, maxBytes, 12)),
+                is(new Size(1024, 768)));
+        assertThat(SizeSelector.select(sizes, RATIO_16_9,
+                SizeSelector.coveringWithinBandwidth(4000, 4000, maxBytes, 12)),
+                is(new Size(1920, 1080)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.coveringWithinBandwidth(1024, 768, 1, 12)),
+                is(new Size(160, 120)));
+    }
+
+    @Test
+    public void testLargest() {
+        SizeMap sizes = sizeMap(CAMERA2_OUTPUT_SIZES);
+        assertThat(SizeSelector.select(sizes, RATIO_16_9, SizeSelector.largest()),
+                is(new Size(3840, 2160)));
+    }
+
+    @Test
+    public void testWithinBandwidth() {
+        SizeMap sizes = sizeMap(CAMERA2_OUTPUT_SIZES);
+        long maxBytes = 1920 * 1080 * 12 / 8;
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.withinBandwidth(SizeSelector.largest(), maxBytes, 12)),
+                is(new Size(1600, 1200)));
+        assertThat(SizeSelector.select(sizes, RATIO_4_3,
+                SizeSelector.withinBandwidth(SizeSelector.closestArea(800, 600), maxBytes, 12)),
+                is(new Size(800, 600)));
+    }
+
+    private static SizeMap sizeMap(int[] dimensions) {
+        SizeMap map = new SizeMap();
+        for (Size size : sizes(dimensions)) {
+            map.add(size);
+        }
+        map.freeze();
+        return map;
+    }
+
+    private static Size[] sizes(int[] dimensions) {
+        Size[] sizes = new Size[dimensions.length / 2];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new Size(dimensions[i * 2], dimensions[i * 2 + 1]);
+        }
+        return sizes;
+    }
+
+}
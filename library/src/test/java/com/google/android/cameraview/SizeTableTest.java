@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class SizeTableTest {
+
+    private static final AspectRatio RATIO_4_3 = AspectRatio.of(4, 3);
+
+    @Test
+    public void testCount() {
+        SizeTable table = sizeMap().table();
+        assertThat(table.count(RATIO_4_3), is(4));
+        assertThat(table.count(AspectRatio.of(16, 9)), is(2));
+        assertThat(table.count(AspectRatio.of(1, 1)), is(0));
+        assertThat(table.row(AspectRatio.of(1, 1)), is(nullValue()));
+    }
+
+    @Test
+    public void testRow() {
+        SizeTable.Row row = sizeMap().table().row(RATIO_4_3);
+        assertThat(row.get(0), is(new Size(640, 480)));
+        assertThat(row.get(3), is(new Size(2048, 1536)));
+        assertThat(row.area(1), is(1280L * 960));
+    }
+
+    @Test
+    public void testIndexOfFirstCovering() {
+        SizeTable.Row row = sizeMap().table().row(RATIO_4_3);
+        assertThat(row.indexOfFirstCovering(0, 0), is(0));
+        assertThat(row.indexOfFirstCovering(1200, 900), is(1));
+        assertThat(row.indexOfFirstCovering(1280, 960), is(1));
+        assertThat(row.indexOfFirstCovering(1000, 1000), is(2));
+        assertThat(row.indexOfFirstCovering(4000, 3000), is(4));
+    }
+
+    @Test
+    public void testIndexOfFirstCovering_matchesLinearScan() {
+        SizeTable.Row row = sizeMap().table().row(RATIO_4_3);
+        for (int width = 0; width <= 2100; width += 50) {
+            for (int height = 0; height <= 1600; height += 50) {
+                int expected = 0;
+                while (expected < row.count() && (row.get(expected).getWidth() < width
+                        || row.get(expected).getHeight() < height)) {
+                    expected++;
+                }
+                assertThat(row.indexOfFirstCovering(width, height), is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOfFirstAreaAtLeast() {
+        SizeTable.Row row = sizeMap().table().row(RATIO_4_3);
+        assertThat(row.indexOfFirstAreaAtLeast(0), is(0));
+        assertThat(row.indexOfFirstAreaAtLeast(640 * 480), is(0));
+        assertThat(row.indexOfFirstAreaAtLeast(640 * 480 + 1), is(1));
+        assertThat(row.indexOfFirstAreaAtLeast(10000000), is(4));
+    }
+
+    @Test
+    public void testCountFrameDurationAtMost() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(640, 480));
+        map.add(new Size(1280, 960));
+        map.add(new Size(1600, 1200));
+        map.add(new Size(2048, 1536));
+        map.setMinFrameDuration(new Size(1280, 960), 33333333L);
+        map.setMinFrameDuration(new Size(1600, 1200), 66666666L);
+        // Reported faster than a smaller size; treated as slow as the smaller one
+        map.setMinFrameDuration(new Size(2048, 1536), 33333333L);
+        map.freeze();
+        SizeTable.Row row = map.table().row(RATIO_4_3);
+        assertThat(row.countFrameDurationAtMost(0), is(1));
+        assertThat(row.countFrameDurationAtMost(33333333L), is(2));
+        assertThat(row.countFrameDurationAtMost(66666666L), is(4));
+    }
+
+    @Test
+    public void testSizeMapTable() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(640, 480));
+        assertThat(map.table(), is(nullValue()));
+        map.freeze();
+        assertThat(map.table().count(RATIO_4_3), is(1));
+    }
+
+    private static SizeMap sizeMap() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(2048, 1536));
+        map.add(new Size(640, 480));
+        map.add(new Size(1600, 1200));
+        map.add(new Size(1280, 960));
+        map.add(new Size(1920, 1080));
+        map.add(new Size(1280, 720));
+        map.freeze();
+        return map;
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class VideoRecordingTest {
+
+    @Test
+    public void testChooseSize() {
+        SizeMap sizes = new SizeMap();
+        sizes.add(new Size(3840, 2160));
+        sizes.add(new Size(1920, 1080));
+        sizes.add(new Size(1280, 720));
+        sizes.add(new Size(640, 480));
+        Size fallback = new Size(800, 600);
+        // Larger sizes are not recorded
+        assertThat(VideoRecording.chooseSize(sizes, AspectRatio.of(16, 9), fallback),
+                is(new Size(1920, 1080)));
+        assertThat(VideoRecording.chooseSize(sizes, AspectRatio.of(4, 3), fallback),
+                is(new Size(640, 480)));
+        // No size of the aspect ratio
+        assertThat(VideoRecording.chooseSize(sizes, AspectRatio.of(1, 1), fallback),
+                is(fallback));
+    }
+
+    @Test
+    public void testChooseBitRate() {
+        assertThat(VideoRecording.chooseBitRate(new Size(1920, 1080), 30), is(10368000));
+        assertThat(VideoRecording.chooseBitRate(new Size(1280, 720), 30), is(4608000));
+        // Small videos still get a usable bit rate
+        assertThat(VideoRecording.chooseBitRate(new Size(176, 144), 15), is(500000));
+    }
+
+}